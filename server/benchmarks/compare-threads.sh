@@ -0,0 +1,62 @@
+#!/usr/bin/env bash
+# Compares platform and virtual threads under the same load. The server is started once per mode with the loadtest
+# profile on the local disk storage backend, standing in for Cloud Storage, and driven by LoadTest at each rate.
+# Full reports go to results/<mode>-<rps>.txt, throughput and p50/p99 of all requests to results/summary.md.
+#
+# Build first: ../mvnw install -DskipTests && ../mvnw package
+# Settings: RATES="25 50 100 200" DURATION=120 WARMUP=20 PORT=8080 SERVER_JAR=../target/hackathon-<version>.jar
+set -euo pipefail
+cd "$(dirname "$0")"
+
+RATES="${RATES:-25 50 100 200}"
+DURATION="${DURATION:-120}"
+WARMUP="${WARMUP:-20}"
+PORT="${PORT:-8080}"
+SERVER_JAR="${SERVER_JAR:-$(ls ../target/hackathon-*.jar 2>/dev/null | grep -v plain | head -n 1)}"
+RESULTS=results
+
+if [[ -z "$SERVER_JAR" || ! -f target/benchmarks.jar ]]; then
+    echo "Server or benchmarks jar missing, build them first: ../mvnw install -DskipTests && ../mvnw package" >&2
+    exit 1
+fi
+mkdir -p "$RESULTS"
+
+SUMMARY="$RESULTS/summary.md"
+{
+    echo "Load test of $(basename "$SERVER_JAR") on $(uname -srm), $(nproc) cores, $(java -version 2>&1 | head -n 1)"
+    echo "Duration ${DURATION} s after ${WARMUP} s warmup, local disk storage backend"
+    echo
+    echo "| mode | rate req/s | throughput req/s | errors | p50 ms | p99 ms |"
+    echo "|------|-----------:|-----------------:|-------:|-------:|-------:|"
+} > "$SUMMARY"
+
+run() {
+    local mode=$1 profiles=$2
+    local data
+    data=$(mktemp -d)
+    java -jar "$SERVER_JAR" --spring.profiles.active="$profiles" --server.port="$PORT" \
+        --storage.backend=local --storage.local.root="$data" > "$RESULTS/$mode-server.log" 2>&1 &
+    local server=$!
+    until curl -s -o /dev/null "http://localhost:$PORT/actuator/health"; do
+        kill -0 $server 2>/dev/null || { echo "Server failed to start, see $RESULTS/$mode-server.log" >&2; exit 1; }
+        sleep 1
+    done
+
+    for rps in $RATES; do
+        echo "$mode threads at $rps requests/s"
+        java -cp target/benchmarks.jar com.lk.photopredict.benchmarks.LoadTest --url="http://localhost:$PORT" \
+            --rps="$rps" --duration="$DURATION" --warmup="$WARMUP" | tee "$RESULTS/$mode-$rps.txt"
+        # total requests errors req/s p50 p90 p99 max
+        awk -v mode="$mode" -v rps="$rps" '$1 == "total" { printf "| %s | %s | %s | %s | %s | %s |\n", mode, rps, $4, $3, $5, $7 }' \
+            "$RESULTS/$mode-$rps.txt" >> "$SUMMARY"
+    done
+
+    kill $server
+    wait $server || true
+    rm -rf "$data"
+}
+
+run platform loadtest
+run virtual loadtest,virtual
+
+cat "$SUMMARY"
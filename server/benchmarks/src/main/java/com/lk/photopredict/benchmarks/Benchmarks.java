@@ -0,0 +1,24 @@
+package com.lk.photopredict.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the JMH command line, writing results as JSON to {@code jmh-result.json} unless a result
+ * format or file is given. Compare the files of two releases to spot regressions.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        if (!arguments.contains("-rf")) {
+            arguments.addAll(List.of("-rf", "json"));
+        }
+        if (!arguments.contains("-rff")) {
+            arguments.addAll(List.of("-rff", "jmh-result.json"));
+        }
+        Main.main(arguments.toArray(String[]::new));
+    }
+}
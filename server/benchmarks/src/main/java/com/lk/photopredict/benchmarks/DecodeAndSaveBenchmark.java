@@ -0,0 +1,91 @@
+package com.lk.photopredict.benchmarks;
+
+import com.lk.photopredict.repository.Bucket;
+import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.InMemoryBackend;
+import com.lk.photopredict.repository.LocalBackend;
+import com.lk.photopredict.repository.StorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Saving an uploaded photo, from the base64 string of the JSON request to the stored blob. Photos are random bytes
+ * of the size of a thumbnail, a compressed phone photo and a full resolution one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeAndSaveBenchmark {
+
+    @Param({"204800", "2097152", "6291456"})
+    int photoBytes;
+
+    @Param({"memory", "local"})
+    String backend;
+
+    @Param({"false", "true"})
+    boolean contentAddressed;
+
+    private String photo;
+    private Path root;
+    private DataStore dataStore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] bytes = new byte[photoBytes];
+        new Random(42).nextBytes(bytes);
+        photo = Base64.getEncoder().encodeToString(bytes);
+        StorageBackend storageBackend;
+        if (backend.equals("local")) {
+            root = Files.createTempDirectory("benchmark-");
+            storageBackend = new LocalBackend(root);
+        } else {
+            storageBackend = new InMemoryBackend();
+        }
+        dataStore = DataStore.builder(storageBackend, Bucket.Name.Image)
+                .contentAddressed(contentAddressed)
+                .meterRegistry(new SimpleMeterRegistry())
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (root != null) {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public String decodeAndSave() {
+        String id = dataStore.decodeAndSave(photo);
+        // Deleted again, so the stored photos don't fill memory or disk, a map removal or two file deletes
+        dataStore.delete(id);
+        return id;
+    }
+}
@@ -0,0 +1,80 @@
+package com.lk.photopredict.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lk.photopredict.payload.Deviation;
+import com.lk.photopredict.repository.BatchReadResult;
+import com.lk.photopredict.repository.Bucket;
+import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.InMemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the deviations of the list endpoint with {@link DataStore#getAll}, from memory, so the result is the
+ * overhead of the batch read itself: scheduling, permits and collecting the results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetAllBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int deviations;
+
+    @Param({"1", "16"})
+    int readParallelism;
+
+    private ExecutorService executor;
+    private DataStore dataStore;
+    private List<String> ids;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        dataStore = DataStore.builder(new InMemoryBackend(), Bucket.Name.Deviation)
+                .batchReads(executor, readParallelism)
+                .meterRegistry(new SimpleMeterRegistry())
+                .build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        ids = new ArrayList<>();
+        for (int i = 0; i < deviations; i++) {
+            String id = "deviation-" + i;
+            Deviation deviation = new Deviation(id, "2025-05-01T10:15:30Z",
+                    List.of("photo-" + i + "-1", "photo-" + i + "-2"), List.of("recording-" + i),
+                    "Burn marks around the socket in the kitchen, breaker trips when the kettle is on");
+            dataStore.save(objectMapper.writeValueAsString(deviation), id);
+            ids.add(id);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public BatchReadResult<String> getAll() {
+        return dataStore.getAll(ids);
+    }
+}
@@ -0,0 +1,88 @@
+package com.lk.photopredict.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lk.photopredict.payload.Deviation;
+import com.lk.photopredict.payload.DeviationAnalysis;
+import com.lk.photopredict.payload.Solution;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the stored payloads, with one shared object mapper like in the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Deviation deviation;
+    private DeviationAnalysis analysis;
+    private Solution solution;
+    private String deviationJson;
+    private String analysisJson;
+    private String solutionJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        deviation = new Deviation("7f9c2d1e-5b0a-4c7e-9f3d-2a8b6e4c1d0f", "2025-05-01T10:15:30Z",
+                List.of("a3f1c9e2", "b7d4e8f1", "c2e9a4b7"), List.of("d8b3f6a1"),
+                "Burn marks around the socket in the kitchen, breaker trips when the kettle is on");
+        analysis = new DeviationAnalysis();
+        analysis.addTranscription("d8b3f6a1", Texts.TRANSCRIPTION);
+        for (String image : deviation.images()) {
+            analysis.addImageDescription(image, Texts.IMAGE_DESCRIPTION);
+        }
+        solution = Texts.solution();
+        analysis.setSolution(solution);
+        deviationJson = objectMapper.writeValueAsString(deviation);
+        analysisJson = objectMapper.writeValueAsString(analysis);
+        solutionJson = objectMapper.writeValueAsString(solution);
+    }
+
+    @Benchmark
+    public String writeDeviation() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(deviation);
+    }
+
+    @Benchmark
+    public Deviation readDeviation() throws JsonProcessingException {
+        return objectMapper.readValue(deviationJson, Deviation.class);
+    }
+
+    @Benchmark
+    public String writeAnalysis() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(analysis);
+    }
+
+    @Benchmark
+    public DeviationAnalysis readAnalysis() throws JsonProcessingException {
+        return objectMapper.readValue(analysisJson, DeviationAnalysis.class);
+    }
+
+    @Benchmark
+    public String writeSolution() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(solution);
+    }
+
+    @Benchmark
+    public Solution readSolution() throws JsonProcessingException {
+        return objectMapper.readValue(solutionJson, Solution.class);
+    }
+}
@@ -0,0 +1,316 @@
+package com.lk.photopredict.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lk.photopredict.config.ApiKeyConfig;
+import com.lk.photopredict.payload.Deviation;
+import com.lk.photopredict.payload.DeviationRequest;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a server started with the {@code loadtest} profile at a fixed rate of requests, a mix of new deviations,
+ * the list, single deviations, photos and analyses, and reports throughput, latency percentiles and the heap and GC
+ * activity of the server.
+ * Requests are sent at their scheduled time whether earlier ones returned or not, and latency is measured from
+ * that time, so a slow server is not hidden by the driver waiting for it.
+ * <p>
+ * Options, all with defaults: {@code --url=http://localhost:8080 --rps=20 --duration=60 --warmup=10
+ * --photo-width=1600 --photos=3 --recordings=1}
+ */
+public class LoadTest {
+
+    private enum Operation {
+        // Weights of the mix, in percent
+        CREATE(10), LIST(20), GET(20), PHOTO(30), ANALYSIS(20);
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+
+        static Operation pick(int percent) {
+            int sum = 0;
+            for (Operation operation : values()) {
+                sum += operation.weight;
+                if (percent < sum) {
+                    return operation;
+                }
+            }
+            return ANALYSIS;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final String url;
+    private final int photos;
+    private final int recordings;
+    private final List<String> encodedPhotos = new ArrayList<>();
+    private final List<String> encodedRecordings = new ArrayList<>();
+
+    // IDs known from created deviations
+    private final List<String> deviationIds = new CopyOnWriteArrayList<>();
+    private final List<String> photoIds = new CopyOnWriteArrayList<>();
+
+    private final Map<Operation, ConcurrentLinkedQueue<Long>> latencies = new ConcurrentHashMap<>();
+    private final Map<Operation, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    private LoadTest(Map<String, String> options) throws IOException {
+        this.url = options.getOrDefault("url", "http://localhost:8080");
+        this.photos = Integer.parseInt(options.getOrDefault("photos", "3"));
+        this.recordings = Integer.parseInt(options.getOrDefault("recordings", "1"));
+        int photoWidth = Integer.parseInt(options.getOrDefault("photo-width", "1600"));
+        Random random = new Random(42);
+        // A few distinct photos and recordings, every new deviation picks some of them
+        for (int i = 0; i < 8; i++) {
+            encodedPhotos.add(Base64.getEncoder().encodeToString(photo(random, photoWidth, photoWidth * 3 / 4)));
+            byte[] recording = new byte[200_000];
+            random.nextBytes(recording);
+            encodedRecordings.add(Base64.getEncoder().encodeToString(recording));
+        }
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentLinkedQueue<>());
+            errors.put(operation, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        int rps = Integer.parseInt(options.getOrDefault("rps", "20"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+
+        LoadTest loadTest = new LoadTest(options);
+        System.out.printf("Warming up %s for %d s at %d requests/s%n", loadTest.url, warmup, rps);
+        loadTest.run(rps, warmup);
+        loadTest.reset();
+        JsonNode before = loadTest.jvm();
+        System.out.printf("Measuring for %d s%n", duration);
+        long start = System.nanoTime();
+        loadTest.run(rps, duration);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        loadTest.report(seconds, before, loadTest.jvm());
+    }
+
+    /**
+     * Sends requests at the rate for the duration and waits for all of them.
+     */
+    private void run(int rps, int seconds) throws InterruptedException {
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rps;
+        long total = (long) rps * seconds;
+        AtomicLong sent = new AtomicLong();
+        ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        ticker.scheduleAtFixedRate(() -> {
+            long n = sent.getAndIncrement();
+            if (n >= total) {
+                ticker.shutdown();
+                return;
+            }
+            long scheduledAt = start + n * periodNanos;
+            Operation operation = deviationIds.isEmpty()
+                    ? Operation.CREATE
+                    : Operation.pick(ThreadLocalRandom.current().nextInt(100));
+            requests.execute(() -> send(operation, scheduledAt));
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+        ticker.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+        requests.shutdown();
+        // Analyses and uploads may be slow, wait for the last responses
+        requests.awaitTermination(5, TimeUnit.MINUTES);
+    }
+
+    private void send(Operation operation, long scheduledAt) {
+        try {
+            HttpResponse<byte[]> response = client.send(request(operation), HttpResponse.BodyHandlers.ofByteArray());
+            latencies.get(operation).add(System.nanoTime() - scheduledAt);
+            if (response.statusCode() >= 400) {
+                errors.get(operation).incrementAndGet();
+                return;
+            }
+            if (operation == Operation.CREATE) {
+                Deviation deviation = objectMapper.readValue(response.body(), Deviation.class);
+                deviationIds.add(deviation.id());
+                photoIds.addAll(deviation.images());
+            }
+        } catch (IOException | RuntimeException e) {
+            latencies.get(operation).add(System.nanoTime() - scheduledAt);
+            errors.get(operation).incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private HttpRequest request(Operation operation) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .header(ApiKeyConfig.API_KEY_HEADER, ApiKeyConfig.API_KEY)
+                .timeout(Duration.ofSeconds(60));
+        return switch (operation) {
+            case CREATE -> {
+                List<String> images = new ArrayList<>();
+                for (int i = 0; i < photos; i++) {
+                    images.add(encodedPhotos.get(random.nextInt(encodedPhotos.size())));
+                }
+                List<String> records = new ArrayList<>();
+                for (int i = 0; i < recordings; i++) {
+                    records.add(encodedRecordings.get(random.nextInt(encodedRecordings.size())));
+                }
+                byte[] body = objectMapper.writeValueAsBytes(new DeviationRequest(images, records, "Burn marks around the socket"));
+                yield request.uri(URI.create(url + "/api/deviations"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                        .build();
+            }
+            case LIST -> request.uri(URI.create(url + "/api/deviations")).GET().build();
+            case GET -> request.uri(URI.create(url + "/api/deviations/" + pick(deviationIds))).GET().build();
+            case PHOTO -> {
+                String size = switch (random.nextInt(3)) {
+                    case 0 -> "?size=thumb";
+                    case 1 -> "?size=medium";
+                    default -> "";
+                };
+                yield request.uri(URI.create(url + "/api/photos/" + pick(photoIds) + size)).GET().build();
+            }
+            case ANALYSIS -> request.uri(URI.create(url + "/api/deviations/" + pick(deviationIds) + "/analysis")).GET().build();
+        };
+    }
+
+    private static String pick(List<String> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    private void reset() {
+        latencies.values().forEach(ConcurrentLinkedQueue::clear);
+        errors.values().forEach(count -> count.set(0));
+    }
+
+    /**
+     * Heap and GC metrics of the server from the actuator.
+     */
+    private JsonNode jvm() {
+        Map<String, JsonNode> metrics = new HashMap<>();
+        metrics.put("heap", metric("jvm.memory.used?tag=area:heap"));
+        metrics.put("gc", metric("jvm.gc.pause"));
+        return objectMapper.valueToTree(metrics);
+    }
+
+    private JsonNode metric(String path) {
+        try {
+            HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(URI.create(url + "/actuator/metrics/" + path)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            return response.statusCode() == 200 ? objectMapper.readTree(response.body()) : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static double measurement(JsonNode metric, String statistic) {
+        if (metric == null || metric.isNull()) {
+            return Double.NaN;
+        }
+        for (JsonNode measurement : metric.path("measurements")) {
+            if (statistic.equals(measurement.path("statistic").asText())) {
+                return measurement.path("value").asDouble();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private void report(double seconds, JsonNode before, JsonNode after) {
+        System.out.printf("%n%-10s %8s %8s %8s %10s %10s %10s %10s%n",
+                "operation", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        long allErrors = 0;
+        for (Operation operation : Operation.values()) {
+            long[] sorted = latencies.get(operation).stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            allErrors += errors.get(operation).get();
+            System.out.printf("%-10s %8d %8d %8.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    operation.name().toLowerCase(), sorted.length, errors.get(operation).get(), sorted.length / seconds,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 1.0));
+        }
+        // Percentiles over all requests of the mix, compared between runs by benchmarks/compare-threads.sh
+        long[] all = latencies.values().stream().flatMap(Collection::stream).mapToLong(Long::longValue).toArray();
+        Arrays.sort(all);
+        System.out.printf("%-10s %8d %8d %8.1f %10.1f %10.1f %10.1f %10.1f%n", "total", all.length, allErrors,
+                all.length / seconds, percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+                percentile(all, 1.0));
+
+        double gcCount = measurement(after.get("gc"), "COUNT") - measurement(before.get("gc"), "COUNT");
+        double gcTime = measurement(after.get("gc"), "TOTAL_TIME") - measurement(before.get("gc"), "TOTAL_TIME");
+        System.out.printf("%nHeap used: %.0f MB before, %.0f MB after%n",
+                measurement(before.get("heap"), "VALUE") / 1_048_576, measurement(after.get("heap"), "VALUE") / 1_048_576);
+        System.out.printf("GC pauses: %.0f taking %.0f ms in total, %.1f%% of the time, longest %.0f ms%n",
+                gcCount, gcTime * 1000, gcTime / seconds * 100, measurement(after.get("gc"), "MAX") * 1000);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * JPEG of noise and shapes, so it compresses about like a real photo and the variants have work to do.
+     */
+    private static byte[] photo(Random random, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            for (int i = 0; i < 200; i++) {
+                graphics.setColor(new Color(random.nextInt(0xffffff)));
+                graphics.fillOval(random.nextInt(width), random.nextInt(height), random.nextInt(width / 4) + 1, random.nextInt(height / 4) + 1);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        for (int i = 0; i < width * height / 8; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt(0xffffff));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+}
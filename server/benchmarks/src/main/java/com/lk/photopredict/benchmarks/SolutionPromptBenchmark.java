@@ -0,0 +1,53 @@
+package com.lk.photopredict.benchmarks;
+
+import com.lk.photopredict.payload.Deviation;
+import com.lk.photopredict.payload.DeviationAnalysis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the prompt of the solution from the transcriptions and image descriptions of a deviation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolutionPromptBenchmark {
+
+    // Photos and recordings of the deviation, each with a description or transcription
+    @Param({"1", "5", "20"})
+    int media;
+
+    private Deviation deviation;
+    private DeviationAnalysis analysis;
+
+    @Setup
+    public void setUp() {
+        deviation = new Deviation("deviation", "2025-05-01T10:15:30Z", List.of(), List.of(),
+                "Burn marks around the socket in the kitchen, breaker trips when the kettle is on");
+        analysis = new DeviationAnalysis();
+        for (int i = 0; i < media; i++) {
+            analysis.addTranscription("recording-" + i, Texts.TRANSCRIPTION);
+            analysis.addImageDescription("photo-" + i, Texts.IMAGE_DESCRIPTION);
+        }
+    }
+
+    @Benchmark
+    public String solutionPrompt() {
+        return analysis.solutionPrompt(deviation);
+    }
+}
@@ -0,0 +1,41 @@
+package com.lk.photopredict.benchmarks;
+
+import com.lk.photopredict.payload.Solution;
+
+import java.util.List;
+
+/**
+ * Model output of typical length, so benchmarks work on realistic sizes.
+ */
+final class Texts {
+
+    static final String TRANSCRIPTION = """
+            So I'm standing in the kitchen of the second floor apartment. The socket next to the sink has dark burn \
+            marks on the left side and the cover is slightly melted. The tenant says the breaker trips whenever the \
+            kettle and the microwave run at the same time, and there was a burning smell last week. The wiring \
+            behind the socket looks like the old aluminium type, I can't see any earth connection.""";
+
+    static final String IMAGE_DESCRIPTION = """
+            The photo shows a white double wall socket mounted above a kitchen counter. The left outlet and the \
+            surrounding plastic cover are discoloured brown and black, with a deformed edge indicating heat damage. \
+            A kettle plug is inserted in the right outlet. No visible earthing terminal, the wall around the socket \
+            shows soot traces. Recommendation: disconnect the circuit, replace the socket and inspect the wiring.""";
+
+    private Texts() {
+    }
+
+    static Solution solution() {
+        Solution solution = new Solution();
+        solution.setIssueType("Overheated socket");
+        solution.setSummary("Kitchen socket shows heat damage, likely from overload on aluminium wiring without earth.");
+        solution.setPriorityLevel("High");
+        solution.setRepairEffortHours("3");
+        solution.setCheckList(List.of(
+                "Disconnect the kitchen circuit",
+                "Replace the damaged socket",
+                "Inspect the wiring behind the socket for heat damage",
+                "Check the earth connection",
+                "Verify the breaker rating against the load"));
+        return solution;
+    }
+}
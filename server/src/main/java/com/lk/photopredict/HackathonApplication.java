@@ -1,23 +1,42 @@
 package com.lk.photopredict;
 
+import com.lk.photopredict.config.ExecutionMode;
 import com.lk.photopredict.repository.Bucket;
 import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.GcsBackend;
+import com.lk.photopredict.repository.InMemoryBackend;
+import com.lk.photopredict.repository.LocalBackend;
+import com.lk.photopredict.repository.MediaCache;
+import com.lk.photopredict.repository.StorageBackend;
+import com.lk.photopredict.repository.StorageBusyException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.gax.core.CredentialsProvider;
 import com.google.auth.Credentials;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootApplication
 public class HackathonApplication {
@@ -32,7 +51,8 @@ public class HackathonApplication {
 		SpringApplication.run(HackathonApplication.class, args);
 	}
 
-	@Bean
+	// Not created for load tests, they run without Google services and credentials
+	@Bean @Profile("!loadtest")
 	public Credentials credentials() {
 		ClassLoader classloader = Thread.currentThread().getContextClassLoader();
 		InputStream credentialsStream = classloader.getResourceAsStream("hackathon2025-458305-3dfaf8634507.json");
@@ -50,12 +70,12 @@ public class HackathonApplication {
 		}
 	}
 
-	@Bean
+	@Bean @Profile("!loadtest")
 	public CredentialsProvider credentialsProvider(Credentials credentials) {
 		return () -> credentials;
 	}
 
-	@Bean
+	@Bean @Profile("!loadtest")
 	public Storage storage(Credentials credentials) {
 		return StorageOptions.newBuilder()
 				.setCredentials(credentials)
@@ -63,18 +83,93 @@ public class HackathonApplication {
 				.build()
 				.getService();
 	}
+
+	/**
+	 * Where the data stores keep their blobs, Cloud Storage, the local disk or memory.
+	 */
+	@Bean
+	public StorageBackend storageBackend(ObjectProvider<Storage> storage,
+										 @Value("${storage.backend:gcs}") String backend,
+										 @Value("${storage.local.root:data}") String localRoot) {
+		return switch (backend) {
+			case "gcs" -> new GcsBackend(storage.getObject());
+			case "local" -> new LocalBackend(Path.of(localRoot));
+			case "memory" -> new InMemoryBackend();
+			default -> throw new IllegalArgumentException("Unknown storage backend " + backend);
+		};
+	}
+
+	/**
+	 * Threads for blocking storage calls. Virtual threads are not bounded, every caller limits its own parallelism.
+	 * Platform threads are bounded with a queue, calls not accepted by a full queue fail with
+	 * {@link StorageBusyException}, answered with 503 Service Unavailable.
+	 */
+	@Bean @Qualifier("storage")
+	public ExecutorService storageExecutor(ExecutionMode executionMode, MeterRegistry meterRegistry,
+										   @Value("${storage.executor.threads:64}") int threads,
+										   @Value("${storage.executor.queue-capacity:1000}") int queueCapacity) {
+		ExecutorService executor;
+		if (executionMode.isVirtual()) {
+			executor = Executors.newThreadPerTaskExecutor(executionMode.threadFactory("storage-"));
+		} else {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(queueCapacity), executionMode.threadFactory("storage-"),
+					(task, rejectedBy) -> {
+						throw new StorageBusyException("Storage calls queue is full");
+					});
+			// Idle threads are not kept once the load is gone
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		// Timed wrapper, with pool gauges for platform threads
+		return ExecutorServiceMetrics.monitor(meterRegistry, executor, "storage");
+	}
+
 	@Bean @Qualifier("image")
-	public DataStore imageDataStore(Storage storage) {
-		return new DataStore(storage, Bucket.Name.Image);
+	public DataStore imageDataStore(StorageBackend storageBackend, @Qualifier("storage") ExecutorService storageExecutor,
+									@Value("${storage.read-parallelism:16}") int readParallelism,
+									@Value("${storage.timeout-seconds:30}") long timeoutSeconds,
+									@Value("${media.cache.image.max-bytes:268435456}") long maxCacheBytes,
+									@Value("${media.cache.max-entry-bytes:10485760}") long maxEntryBytes,
+									@Value("${media.cache.off-heap:false}") boolean offHeap,
+									@Value("${storage.content-addressed:false}") boolean contentAddressed,
+									MeterRegistry meterRegistry) {
+		return DataStore.builder(storageBackend, Bucket.Name.Image)
+				.batchReads(storageExecutor, readParallelism)
+				.async(storageExecutor, Duration.ofSeconds(timeoutSeconds))
+				.cache(new MediaCache("media.image", maxCacheBytes, maxEntryBytes, offHeap, meterRegistry))
+				.contentAddressed(contentAddressed)
+				.meterRegistry(meterRegistry)
+				.build();
 	}
 
 	@Bean @Qualifier("recording")
-	public DataStore recordingDataStore(Storage storage) {
-		return new DataStore(storage, Bucket.Name.Recording);
+	public DataStore recordingDataStore(StorageBackend storageBackend, @Qualifier("storage") ExecutorService storageExecutor,
+										@Value("${storage.read-parallelism:16}") int readParallelism,
+										@Value("${storage.timeout-seconds:30}") long timeoutSeconds,
+										@Value("${media.cache.recording.max-bytes:134217728}") long maxCacheBytes,
+										@Value("${media.cache.max-entry-bytes:10485760}") long maxEntryBytes,
+										@Value("${media.cache.off-heap:false}") boolean offHeap,
+										@Value("${storage.content-addressed:false}") boolean contentAddressed,
+										MeterRegistry meterRegistry) {
+		return DataStore.builder(storageBackend, Bucket.Name.Recording)
+				.batchReads(storageExecutor, readParallelism)
+				.async(storageExecutor, Duration.ofSeconds(timeoutSeconds))
+				.cache(new MediaCache("media.recording", maxCacheBytes, maxEntryBytes, offHeap, meterRegistry))
+				.contentAddressed(contentAddressed)
+				.meterRegistry(meterRegistry)
+				.build();
 	}
 	@Bean @Qualifier("deviation")
-	public DataStore deviationDataStore(Storage storage) {
-		return new DataStore(storage, Bucket.Name.Deviation);
+	public DataStore deviationDataStore(StorageBackend storageBackend, @Qualifier("storage") ExecutorService storageExecutor,
+										@Value("${storage.read-parallelism:16}") int readParallelism,
+										@Value("${storage.timeout-seconds:30}") long timeoutSeconds,
+										MeterRegistry meterRegistry) {
+		return DataStore.builder(storageBackend, Bucket.Name.Deviation)
+				.batchReads(storageExecutor, readParallelism)
+				.async(storageExecutor, Duration.ofSeconds(timeoutSeconds))
+				.meterRegistry(meterRegistry)
+				.build();
 	}
 
 	@Bean
@@ -0,0 +1,234 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.payload.AnalysisStatus;
+import com.lk.photopredict.payload.Deviation;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Status of the analyses submitted to this instance, in memory only. Every change of a job increases its version
+ * and completes the future returned by {@link #changeAfter}, so clients can wait for the next change instead of
+ * polling the storage for the analysis. Finished jobs are kept for {@code analysis.jobs.retention-minutes}.
+ */
+@Component
+public class AnalysisJobs {
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisJobs.class);
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Duration retention;
+    private final ScheduledExecutorService sweeper;
+
+    public AnalysisJobs(@Value("${analysis.jobs.retention-minutes:30}") long retentionMinutes) {
+        this.retention = Duration.ofMinutes(retentionMinutes);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("analysis-jobs-sweep-", 0).factory());
+        sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    void queued(Deviation deviation) {
+        AtomicReference<Job> replaced = new AtomicReference<>();
+        Job job = jobs.compute(deviation.id(), (id, previous) -> {
+            replaced.set(previous);
+            // Versions keep increasing over analyses of the deviation, so a version of the previous one is outdated
+            return new Job(deviation, previous == null ? 0 : previous.version() + 1);
+        });
+        if (replaced.get() != null) {
+            release(replaced.get(), job);
+        }
+    }
+
+    void started(String deviationId) {
+        update(deviationId, job -> {
+            job.state = AnalysisStatus.State.RUNNING;
+            job.startedAt = System.currentTimeMillis();
+        });
+    }
+
+    void stepFinished(String deviationId, AnalysisStage stage, boolean succeeded) {
+        update(deviationId, job -> (succeeded ? job.done : job.failed)[stage.ordinal()]++);
+    }
+
+    void finished(String deviationId, Throwable failure) {
+        update(deviationId, job -> {
+            job.state = failure == null ? AnalysisStatus.State.DONE : AnalysisStatus.State.FAILED;
+            job.finishedAt = System.currentTimeMillis();
+            job.error = failure == null ? null : failure.getMessage();
+        });
+    }
+
+    /**
+     * @return current status, null when no analysis of the deviation is known
+     */
+    public AnalysisStatus status(String deviationId) {
+        Job job = jobs.get(deviationId);
+        if (job == null) {
+            return null;
+        }
+        job.lock.lock();
+        try {
+            return job.status();
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    /**
+     * Status after the given version. Completed at once when the job changed since or is finished, otherwise
+     * on its next change.
+     *
+     * @return future status, null when no analysis of the deviation is known
+     */
+    public CompletableFuture<AnalysisStatus> changeAfter(String deviationId, long version) {
+        Job job = jobs.get(deviationId);
+        if (job == null) {
+            return null;
+        }
+        job.lock.lock();
+        try {
+            if (job.version != version || job.state.isFinished()) {
+                return CompletableFuture.completedFuture(job.status());
+            }
+            return job.changed;
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    public void remove(String deviationId) {
+        Job job = jobs.remove(deviationId);
+        if (job != null) {
+            release(job, job);
+        }
+    }
+
+    /**
+     * Completes the requests waiting for a change of a job no longer tracked, with the status of the job taking its
+     * place or its own last status.
+     */
+    private static void release(Job job, Job next) {
+        CompletableFuture<AnalysisStatus> changed;
+        job.lock.lock();
+        try {
+            changed = job.changed;
+        } finally {
+            job.lock.unlock();
+        }
+        AnalysisStatus status;
+        next.lock.lock();
+        try {
+            status = next.status();
+        } finally {
+            next.lock.unlock();
+        }
+        changed.complete(status);
+    }
+
+    private void update(String deviationId, Consumer<Job> change) {
+        Job job = jobs.get(deviationId);
+        if (job == null) {
+            return;
+        }
+        CompletableFuture<AnalysisStatus> changed;
+        AnalysisStatus status;
+        job.lock.lock();
+        try {
+            change.accept(job);
+            job.version++;
+            status = job.status();
+            changed = job.changed;
+            job.changed = new CompletableFuture<>();
+        } finally {
+            job.lock.unlock();
+        }
+        // Outside of the lock, waiting requests are completed on this thread
+        changed.complete(status);
+    }
+
+    void sweep() {
+        long oldest = System.currentTimeMillis() - retention.toMillis();
+        int before = jobs.size();
+        jobs.values().removeIf(job -> {
+            job.lock.lock();
+            try {
+                return job.state.isFinished() && job.finishedAt < oldest;
+            } finally {
+                job.lock.unlock();
+            }
+        });
+        if (jobs.size() < before) {
+            logger.debug("Removed {} finished analysis jobs", before - jobs.size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    private static final class Job {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final String deviationId;
+        private final long queuedAt = System.currentTimeMillis();
+        // Calls per stage, indexed by the ordinal of the stage
+        private final int[] total = new int[AnalysisStage.values().length];
+        private final int[] done = new int[AnalysisStage.values().length];
+        private final int[] failed = new int[AnalysisStage.values().length];
+
+        // Guarded by the lock
+        private AnalysisStatus.State state = AnalysisStatus.State.QUEUED;
+        private long version;
+        private Long startedAt;
+        private Long finishedAt;
+        private String error;
+        private CompletableFuture<AnalysisStatus> changed = new CompletableFuture<>();
+
+        private Job(Deviation deviation, long version) {
+            this.deviationId = deviation.id();
+            this.version = version;
+            // Same media are analyzed once
+            int recordings = new HashSet<>(deviation.recordings()).size();
+            int images = new HashSet<>(deviation.images()).size();
+            total[AnalysisStage.TRANSCRIPTION.ordinal()] = recordings;
+            total[AnalysisStage.IMAGE_DESCRIPTION.ordinal()] = images;
+            total[AnalysisStage.TEXT_GENERATION.ordinal()] = images == 0 ? 0 : 1;
+            total[AnalysisStage.JSON_PARSE.ordinal()] = images == 0 ? 0 : 1;
+            total[AnalysisStage.SAVE.ordinal()] = 1;
+        }
+
+        private long version() {
+            lock.lock();
+            try {
+                return version;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private AnalysisStatus status() {
+            List<AnalysisStatus.Stage> stages = new ArrayList<>();
+            for (AnalysisStage stage : AnalysisStage.values()) {
+                int i = stage.ordinal();
+                if (total[i] > 0) {
+                    stages.add(new AnalysisStatus.Stage(stage.tag(), total[i], done[i], failed[i]));
+                }
+            }
+            return new AnalysisStatus(deviationId, state, version, queuedAt, startedAt, finishedAt, stages, error);
+        }
+    }
+}
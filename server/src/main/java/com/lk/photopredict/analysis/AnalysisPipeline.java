@@ -0,0 +1,296 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.config.ExecutionMode;
+import com.lk.photopredict.payload.AnalysisTrace;
+import com.lk.photopredict.payload.Deviation;
+import com.lk.photopredict.payload.DeviationAnalysis;
+import com.lk.photopredict.payload.Solution;
+import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.DeviationIndex;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Analysis of a single deviation.
+ * All transcriptions and image descriptions are requested at the same time (bounded by
+ * {@code analysis.concurrency} across all running analyses) and joined before the solution prompt is built.
+ * Every stage is timed per call, model calls answered by the result cache are not.
+ * Each run also saves a trace of its steps next to the analysis, with the sizes and token counts of every call.
+ */
+@Component
+public class AnalysisPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisPipeline.class);
+
+    private final ExecutorService executorService;
+
+    private final DataStore deviationStorage;
+    private final DataStore photosStorage;
+    private final DataStore recordingStorage;
+    private final DeviationIndex deviationIndex;
+    private final ObjectMapper objectMapper;
+    private final Transcriber transcriber;
+    private final ImageDescriptionGenerator imageDescriptionGenerator;
+    private final TextGenerator textGenerator;
+    private final AnalysisResultCache resultCache;
+    private final AnalysisJobs jobs;
+    private final boolean traceEnabled;
+
+    private final Map<AnalysisStage, Timer> succeeded = new EnumMap<>(AnalysisStage.class);
+    private final Map<AnalysisStage, Timer> failed = new EnumMap<>(AnalysisStage.class);
+
+    public AnalysisPipeline(
+            @Qualifier("deviation") DataStore deviationStorage,
+            @Qualifier("image") DataStore photosStorage,
+            @Qualifier("recording") DataStore recordingStorage,
+            DeviationIndex deviationIndex,
+            ObjectMapper objectMapper,
+            Transcriber transcriber,
+            ImageDescriptionGenerator imageDescriptionGenerator,
+            TextGenerator textGenerator,
+            AnalysisResultCache resultCache,
+            AnalysisJobs jobs,
+            ExecutionMode executionMode,
+            MeterRegistry meterRegistry,
+            @Value("${analysis.concurrency:8}") int concurrency,
+            @Value("${analysis.trace.enabled:true}") boolean traceEnabled) {
+        this.deviationStorage = deviationStorage;
+        this.photosStorage = photosStorage;
+        this.recordingStorage = recordingStorage;
+        this.deviationIndex = deviationIndex;
+        this.objectMapper = objectMapper;
+        this.transcriber = transcriber;
+        this.imageDescriptionGenerator = imageDescriptionGenerator;
+        this.textGenerator = textGenerator;
+        this.resultCache = resultCache;
+        this.jobs = jobs;
+        this.traceEnabled = traceEnabled;
+        this.executorService = Executors.newFixedThreadPool(concurrency, executionMode.threadFactory("analysis-fanout-"));
+        new ExecutorServiceMetrics(executorService, "analysis.fanout", Tags.empty()).bindTo(meterRegistry);
+        for (AnalysisStage stage : AnalysisStage.values()) {
+            succeeded.put(stage, stageTimer(meterRegistry, stage, "success"));
+            failed.put(stage, stageTimer(meterRegistry, stage, "failure"));
+        }
+        logger.info("Analysis pipeline started with concurrency {}", concurrency);
+    }
+
+    private static Timer stageTimer(MeterRegistry meterRegistry, AnalysisStage stage, String outcome) {
+        return Timer.builder("analysis.stage")
+                .description("Time of one step of a deviation analysis")
+                .tag("stage", stage.tag())
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private <T> T timed(AnalysisStage stage, Supplier<T> call) {
+        long start = System.nanoTime();
+        Timer timer = failed.get(stage);
+        try {
+            T result = call.get();
+            timer = succeeded.get(stage);
+            return result;
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Analyzes the deviation and saves the result next to it, together with the trace of the analysis.
+     */
+    public void run(Deviation deviation) {
+        AnalysisTraceRecorder trace = new AnalysisTraceRecorder(deviation.id(),
+                (stage, succeeded) -> jobs.stepFinished(deviation.id(), stage, succeeded));
+        try {
+            DeviationAnalysis deviationAnalysis = analyze(deviation, trace);
+            String da;
+            try {
+                logger.debug("Serializing deviation analysis to JSON");
+                da = objectMapper.writeValueAsString(deviationAnalysis);
+                logger.debug("Successfully serialized deviation analysis, JSON length: {}", da.length());
+            } catch (JsonProcessingException e) {
+                logger.error("Failed to serialize deviation analysis: {}", e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+            traced(trace.start(AnalysisStage.SAVE, null).bytesOut(AnalysisTraceRecorder.bytes(da)),
+                    () -> timed(AnalysisStage.SAVE, () -> deviationStorage.save(da, deviation.id() + DeviationAnalysis.ID_SUFFIX)));
+            deviationIndex.markAnalyzed(deviation.id());
+            saveTrace(trace.finish(null));
+        } catch (RuntimeException e) {
+            saveTrace(trace.finish(e));
+            throw e;
+        }
+    }
+
+    public DeviationAnalysis analyze(Deviation deviation) {
+        return analyze(deviation, new AnalysisTraceRecorder(deviation.id()));
+    }
+
+    private DeviationAnalysis analyze(Deviation deviation, AnalysisTraceRecorder trace) {
+        logger.info("Analyzing deviation {} with {} recordings and {} images",
+                deviation.id(), deviation.recordings().size(), deviation.images().size());
+        DeviationAnalysis deviationAnalysis = new DeviationAnalysis();
+
+        // The same content was described before when it is re-analyzed or uploaded again
+        Map<String, CompletableFuture<String>> transcriptions = fanOut(deviation.recordings(), recording -> {
+            AnalysisTraceRecorder.Step step = trace.startCached(AnalysisStage.TRANSCRIPTION, recording);
+            return traced(step, () -> {
+                // Only the cache needs the content hash
+                DataStore.Metadata media = resultCache.isEnabled() ? recordingStorage.metadata(recording) : null;
+                step.bytesIn(media == null ? -1 : media.size());
+                String transcription = resultCache.get(AnalysisResultCache.Kind.TRANSCRIPTION, contentHash(media),
+                        RecordTranscript.LANGUAGE_CODE, RecordTranscript.MODEL_NAME,
+                        () -> timed(AnalysisStage.TRANSCRIPTION, () -> {
+                            String transcribed = transcriber.transcribe(recording);
+                            step.computed(RecordTranscript.MODEL_NAME);
+                            return transcribed;
+                        }));
+                step.bytesOut(AnalysisTraceRecorder.bytes(transcription));
+                return transcription;
+            });
+        });
+        Map<String, CompletableFuture<String>> descriptions = fanOut(deviation.images(), image -> {
+            AnalysisTraceRecorder.Step step = trace.startCached(AnalysisStage.IMAGE_DESCRIPTION, image);
+            return traced(step, () -> {
+                // Only the cache needs the content hash
+                DataStore.Metadata media = resultCache.isEnabled() ? photosStorage.metadata(image) : null;
+                step.bytesIn(media == null ? -1 : media.size());
+                String description = resultCache.get(AnalysisResultCache.Kind.IMAGE_DESCRIPTION, contentHash(media),
+                        VertexAIImageDescriptionGenerator.LONG_PROMPT, VertexAIClient.MODEL_NAME,
+                        () -> timed(AnalysisStage.IMAGE_DESCRIPTION, () -> {
+                            try {
+                                GeneratedText generated = imageDescriptionGenerator.describe(image, VertexAIImageDescriptionGenerator.LONG_PROMPT);
+                                step.generated(generated);
+                                return generated.text();
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }));
+                step.bytesOut(AnalysisTraceRecorder.bytes(description));
+                return description;
+            });
+        });
+
+        // Results are added from this thread only and in input order, the maps of the analysis are not shared.
+        transcriptions.forEach((id, transcription) -> deviationAnalysis.addTranscription(id, join(transcription, transcriptions, descriptions)));
+        descriptions.forEach((id, description) -> deviationAnalysis.addImageDescription(id, join(description, transcriptions, descriptions)));
+
+        if (!deviation.images().isEmpty()) {
+            deviationAnalysis.setSolution(solution(deviationAnalysis.solutionPrompt(deviation), trace));
+        }
+        return deviationAnalysis;
+    }
+
+    /**
+     * MD5 of the content kept by the storage, null when unknown.
+     */
+    private static String contentHash(DataStore.Metadata metadata) {
+        return metadata == null ? null : metadata.md5();
+    }
+
+    /**
+     * Saves the trace next to the analysis. A missing trace is no reason to fail the analysis.
+     */
+    private void saveTrace(AnalysisTrace trace) {
+        if (!traceEnabled) {
+            return;
+        }
+        try {
+            deviationStorage.save(objectMapper.writeValueAsString(trace), trace.deviationId() + AnalysisTrace.ID_SUFFIX);
+        } catch (JsonProcessingException | RuntimeException e) {
+            logger.warn("Failed to save the analysis trace of deviation {}", trace.deviationId(), e);
+        }
+    }
+
+    private static <T> T traced(AnalysisTraceRecorder.Step step, Supplier<T> call) {
+        try {
+            T result = call.get();
+            step.succeeded();
+            return result;
+        } catch (RuntimeException e) {
+            step.failed(e);
+            throw e;
+        }
+    }
+
+    private Map<String, CompletableFuture<String>> fanOut(List<String> ids, Function<String, String> task) {
+        Map<String, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        for (String id : ids) {
+            futures.computeIfAbsent(id, key -> CompletableFuture.supplyAsync(() -> task.apply(key), executorService));
+        }
+        return futures;
+    }
+
+    @SafeVarargs
+    private static String join(CompletableFuture<String> future, Map<String, CompletableFuture<String>>... all) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // One failed call fails the whole analysis, there is no point in waiting for the rest
+            for (Map<String, CompletableFuture<String>> futures : all) {
+                futures.values().forEach(f -> f.cancel(true));
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private Solution solution(String prompt, AnalysisTraceRecorder trace) {
+        AnalysisTraceRecorder.Step generation = trace.start(AnalysisStage.TEXT_GENERATION, null)
+                .bytesIn(AnalysisTraceRecorder.bytes(prompt));
+        String text = traced(generation, () -> timed(AnalysisStage.TEXT_GENERATION, () -> {
+            try {
+                logger.debug("Generating text from Vertex AI using prompt");
+                GeneratedText generated = textGenerator.generate(prompt);
+                logger.debug("Successfully generated text from Vertex AI, response length: {}", generated.text().length());
+                generation.generated(generated).bytesOut(AnalysisTraceRecorder.bytes(generated.text()));
+                return generated.text();
+            } catch (IOException e) {
+                logger.error("Failed to generate text from Vertex AI: {}", e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }));
+        AnalysisTraceRecorder.Step parse = trace.start(AnalysisStage.JSON_PARSE, null)
+                .bytesIn(AnalysisTraceRecorder.bytes(text));
+        return traced(parse, () -> timed(AnalysisStage.JSON_PARSE, () -> {
+            try {
+                logger.debug("Attempting to parse solution JSON from Vertex AI response");
+                Solution solution = objectMapper.readValue(text.replace("```json", "").replace("```", ""), Solution.class);
+                logger.debug("Successfully parsed solution JSON: issueType={}, priorityLevel={}, repairEffortHours={}",
+                    solution.getIssueType(), solution.getPriorityLevel(), solution.getRepairEffortHours());
+                return solution;
+            } catch (JsonProcessingException e) {
+                logger.error("Failed to parse solution JSON from Vertex AI response: {}", e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+}
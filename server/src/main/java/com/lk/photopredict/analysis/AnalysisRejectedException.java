@@ -0,0 +1,15 @@
+package com.lk.photopredict.analysis;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Analysis queue is full, the client should retry later.
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class AnalysisRejectedException extends RuntimeException {
+
+    public AnalysisRejectedException(String message) {
+        super(message);
+    }
+}
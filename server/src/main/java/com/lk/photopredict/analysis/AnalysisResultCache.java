@@ -0,0 +1,230 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.SingleFlight;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Results of model calls that depend only on the content of a blob, the prompt and the model, such as image
+ * descriptions and transcriptions. Kept in memory and in the deviation bucket under {@value #PREFIX}, so analyzing
+ * the same content again does not call the model, also after a restart and on other instances.
+ * Stored results expire after {@code analysis.cache.ttl-days}, expired and the oldest results above
+ * {@code analysis.cache.max-stored-entries} are deleted by a periodic sweep.
+ */
+@Component
+public class AnalysisResultCache {
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisResultCache.class);
+
+    public static final String PREFIX = "_cache/";
+
+    public enum Kind {
+        IMAGE_DESCRIPTION, TRANSCRIPTION
+    }
+
+    private final DataStore deviationStorage;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Duration ttl;
+    private final int maxStoredEntries;
+    private final Cache<String, String> memory;
+    private final ScheduledExecutorService sweeper;
+
+    private final Map<Kind, Counter> memoryHits = new EnumMap<>(Kind.class);
+    private final Map<Kind, Counter> storedHits = new EnumMap<>(Kind.class);
+    private final Map<Kind, Counter> misses = new EnumMap<>(Kind.class);
+    // Concurrent misses of the same content read the storage and call the model once
+    private final Map<Kind, SingleFlight<String>> flights = new EnumMap<>(Kind.class);
+
+    public AnalysisResultCache(
+            @Qualifier("deviation") DataStore deviationStorage,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${analysis.cache.enabled:true}") boolean enabled,
+            @Value("${analysis.cache.ttl-days:30}") long ttlDays,
+            @Value("${analysis.cache.memory-entries:10000}") long memoryEntries,
+            @Value("${analysis.cache.max-stored-entries:100000}") int maxStoredEntries,
+            @Value("${analysis.cache.sweep-interval-minutes:360}") long sweepIntervalMinutes) {
+        this.deviationStorage = deviationStorage;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.ttl = Duration.ofDays(ttlDays);
+        this.maxStoredEntries = maxStoredEntries;
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(memoryEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, memory, "analysis.results");
+        for (Kind kind : Kind.values()) {
+            memoryHits.put(kind, requests(meterRegistry, kind, "memory"));
+            storedHits.put(kind, requests(meterRegistry, kind, "stored"));
+            misses.put(kind, requests(meterRegistry, kind, "miss"));
+            flights.put(kind, new SingleFlight<>(requests(meterRegistry, kind, "coalesced"), result -> result));
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("analysis-cache-sweep-", 0).factory());
+        if (enabled) {
+            sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMinutes, sweepIntervalMinutes, TimeUnit.MINUTES);
+        }
+        logger.info("Analysis result cache {}, results kept for {} days", enabled ? "enabled" : "disabled", ttlDays);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, Kind kind, String result) {
+        return Counter.builder("analysis.cache.requests")
+                .description("Cached model results requested, by the tier answering them")
+                .tag("kind", kind.name().toLowerCase())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Cached result for the content, computed and stored when there is none. Concurrent requests of the same
+     * missing result wait for one computation.
+     *
+     * @param contentHash hash of the content the model is called with, null to always compute
+     * @param prompt everything besides the content and the model that decides the result
+     * @param model name and version of the model
+     * @param compute calls the model
+     */
+    public String get(Kind kind, String contentHash, String prompt, String model, Supplier<String> compute) {
+        if (!enabled || contentHash == null) {
+            return compute.get();
+        }
+        String key = key(kind, contentHash, prompt, model);
+        String result = memory.getIfPresent(key);
+        if (result != null) {
+            memoryHits.get(kind).increment();
+            return result;
+        }
+        return flights.get(kind).run(key, () -> loadOrCompute(kind, key, compute));
+    }
+
+    /**
+     * False when every result is computed, the content hash is not needed then.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private String loadOrCompute(Kind kind, String key, Supplier<String> compute) {
+        String result = load(key);
+        if (result != null) {
+            storedHits.get(kind).increment();
+            memory.put(key, result);
+            return result;
+        }
+        misses.get(kind).increment();
+        result = compute.get();
+        memory.put(key, result);
+        store(key, result);
+        return result;
+    }
+
+    private String load(String key) {
+        try {
+            String content = deviationStorage.get(PREFIX + key);
+            if (content == null) {
+                return null;
+            }
+            Entry entry = objectMapper.readValue(content, Entry.class);
+            if (System.currentTimeMillis() - entry.createdAt() > ttl.toMillis()) {
+                logger.debug("Cached analysis result {} expired", key);
+                return null;
+            }
+            return entry.value();
+        } catch (JsonProcessingException | RuntimeException e) {
+            // A broken cache must not break the analysis
+            logger.warn("Failed to read cached analysis result {}", key, e);
+            return null;
+        }
+    }
+
+    private void store(String key, String result) {
+        try {
+            deviationStorage.save(objectMapper.writeValueAsString(new Entry(result, System.currentTimeMillis())), PREFIX + key);
+        } catch (JsonProcessingException | RuntimeException e) {
+            logger.warn("Failed to store analysis result {}", key, e);
+        }
+    }
+
+    /**
+     * Deletes expired results and the oldest ones above the limit.
+     */
+    void sweep() {
+        try {
+            Map<String, DataStore.Metadata> stored = deviationStorage.list(PREFIX);
+            long expiredBefore = System.currentTimeMillis() - ttl.toMillis();
+            List<Map.Entry<String, DataStore.Metadata>> oldestFirst = new ArrayList<>(stored.entrySet());
+            oldestFirst.sort(Comparator.comparingLong(blob -> blob.getValue().updated()));
+            List<String> deleted = new ArrayList<>();
+            int remaining = oldestFirst.size();
+            for (Map.Entry<String, DataStore.Metadata> blob : oldestFirst) {
+                if (blob.getValue().updated() >= expiredBefore && remaining <= maxStoredEntries) {
+                    break;
+                }
+                deleted.add(blob.getKey());
+                remaining--;
+            }
+            if (!deleted.isEmpty()) {
+                logger.info("Deleting {} of {} stored analysis results", deleted.size(), stored.size());
+                deviationStorage.deleteAll(deleted);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to sweep stored analysis results", e);
+        }
+    }
+
+    private static String key(Kind kind, String contentHash, String prompt, String model) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : List.of(kind.name(), contentHash, prompt, model)) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                // Separator, so parts can't shift into each other
+                digest.update((byte) 0);
+            }
+            return kind.name().toLowerCase() + "/" + HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Stored result.
+     *
+     * @param value result of the model
+     * @param createdAt epoch milliseconds of the model call
+     */
+    public record Entry(String value, long createdAt) {
+    }
+}
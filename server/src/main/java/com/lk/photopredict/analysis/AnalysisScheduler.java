@@ -0,0 +1,171 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.config.ExecutionMode;
+import com.lk.photopredict.payload.Deviation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs deviation analyses in the background.
+ * At most {@code analysis.scheduler.workers} analyses run at the same time and at most
+ * {@code analysis.scheduler.queue-capacity} wait for a worker. A slot has to be reserved before the
+ * deviation is saved, so a full scheduler rejects the request before anything is uploaded.
+ * Submitted analyses are tracked by {@link AnalysisJobs} until they are done or failed.
+ */
+@Component
+public class AnalysisScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisScheduler.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+    private final long drainTimeoutSeconds;
+
+    private final AnalysisPipeline analysisPipeline;
+    private final AnalysisJobs jobs;
+
+    private final Timer queueTimer;
+    private final Timer succeeded;
+    private final Timer failed;
+    private final Counter rejected;
+
+    public AnalysisScheduler(
+            AnalysisPipeline analysisPipeline,
+            AnalysisJobs jobs,
+            MeterRegistry meterRegistry,
+            ExecutionMode executionMode,
+            @Value("${analysis.scheduler.workers:4}") int workers,
+            @Value("${analysis.scheduler.queue-capacity:100}") int queueCapacity,
+            @Value("${analysis.scheduler.drain-timeout-seconds:60}") long drainTimeoutSeconds) {
+        this.analysisPipeline = analysisPipeline;
+        this.jobs = jobs;
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+        this.slots = new Semaphore(workers + queueCapacity);
+        // The queue itself is not bounded, the slots are
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                executionMode.threadFactory("analysis-"));
+
+        new ExecutorServiceMetrics(executor, "analysis", Tags.empty()).bindTo(meterRegistry);
+        this.queueTimer = Timer.builder("analysis.queue.wait")
+                .description("Time an analysis waits for a worker")
+                .register(meterRegistry);
+        this.succeeded = Timer.builder("analysis.task")
+                .description("Time of a whole deviation analysis")
+                .tag("outcome", "success")
+                .register(meterRegistry);
+        this.failed = Timer.builder("analysis.task")
+                .description("Time of a whole deviation analysis")
+                .tag("outcome", "failure")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("analysis.rejected")
+                .description("Analyses rejected because the queue was full")
+                .register(meterRegistry);
+        logger.info("Analysis scheduler started with {} workers and queue capacity {}", workers, queueCapacity);
+    }
+
+    /**
+     * Reserves a slot for one analysis.
+     *
+     * @return reservation, release it with {@link Reservation#close()} if the analysis is not submitted
+     * @throws AnalysisRejectedException when all workers are busy and the queue is full, or while shutting down
+     */
+    public Reservation reserve() {
+        if (executor.isShutdown()) {
+            // Draining, a reservation could never be submitted
+            rejected.increment();
+            throw new AnalysisRejectedException("Analysis scheduler is shutting down, try again later");
+        }
+        if (!slots.tryAcquire()) {
+            rejected.increment();
+            logger.warn("Analysis queue is full, {} analyses waiting", executor.getQueue().size());
+            throw new AnalysisRejectedException("Too many analyses in progress, try again later");
+        }
+        return new Reservation();
+    }
+
+    private void run(Deviation deviation, long queuedAt) {
+        long startedAt = System.nanoTime();
+        queueTimer.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+        jobs.started(deviation.id());
+        Timer outcome = succeeded;
+        try {
+            analysisPipeline.run(deviation);
+            logger.info("Analysis of deviation {} finished in {} ms", deviation.id(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+            jobs.finished(deviation.id(), null);
+        } catch (Throwable e) {
+            // Also errors, so clients waiting for the job see it finish
+            outcome = failed;
+            logger.error("Analysis of deviation {} failed", deviation.id(), e);
+            jobs.finished(deviation.id(), e);
+            if (e instanceof Error error) {
+                throw error;
+            }
+        } finally {
+            outcome.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            slots.release();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        logger.info("Draining analysis scheduler, {} running and {} queued", executor.getActiveCount(), executor.getQueue().size());
+        executor.shutdown();
+        if (!executor.awaitTermination(drainTimeoutSeconds, TimeUnit.SECONDS)) {
+            logger.warn("Analysis scheduler did not drain in {} seconds, {} analyses dropped",
+                    drainTimeoutSeconds, executor.shutdownNow().size());
+        }
+    }
+
+    /**
+     * Slot for one analysis. Either submitted or released on close.
+     */
+    public class Reservation implements AutoCloseable {
+        private final AtomicBoolean used = new AtomicBoolean();
+
+        /**
+         * Queues the analysis. Never fails for a saved deviation: when the scheduler started shutting down since the
+         * reservation, the analysis is tracked as failed instead, so the client is not told to retry and create
+         * the deviation again.
+         */
+        public void submit(Deviation deviation) {
+            if (!used.compareAndSet(false, true)) {
+                throw new IllegalStateException("Reservation already used");
+            }
+            long queuedAt = System.nanoTime();
+            // Tracked before it can start
+            jobs.queued(deviation);
+            try {
+                executor.execute(() -> AnalysisScheduler.this.run(deviation, queuedAt));
+            } catch (RejectedExecutionException e) {
+                // Only happens while shutting down
+                slots.release();
+                logger.warn("Analysis of deviation {} not queued, the scheduler is shutting down", deviation.id());
+                jobs.finished(deviation.id(), new AnalysisRejectedException("Analysis scheduler is shutting down"));
+                return;
+            }
+            logger.debug("Analysis of deviation {} queued", deviation.id());
+        }
+
+        @Override
+        public void close() {
+            if (used.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.lk.photopredict.analysis;
+
+/**
+ * Steps of the analysis of one deviation, in order.
+ */
+public enum AnalysisStage {
+    TRANSCRIPTION, IMAGE_DESCRIPTION, TEXT_GENERATION, JSON_PARSE, SAVE;
+
+    /**
+     * Name in metrics and responses.
+     */
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,136 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.payload.AnalysisTrace;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects the steps of one analysis. Steps are finished by the fan-out threads and the analysis thread,
+ * each step itself is only touched by the thread which started it.
+ */
+class AnalysisTraceRecorder {
+
+    private final String deviationId;
+    private final long startedAt = System.currentTimeMillis();
+    private final long start = System.nanoTime();
+    private final Queue<AnalysisTrace.Step> steps = new ConcurrentLinkedQueue<>();
+    // Told about every finished step, with whether it succeeded
+    private final BiConsumer<AnalysisStage, Boolean> listener;
+
+    AnalysisTraceRecorder(String deviationId) {
+        this(deviationId, (stage, succeeded) -> {
+        });
+    }
+
+    AnalysisTraceRecorder(String deviationId, BiConsumer<AnalysisStage, Boolean> listener) {
+        this.deviationId = deviationId;
+        this.listener = listener;
+    }
+
+    Step start(AnalysisStage stage, String item) {
+        return new Step(stage, item, false);
+    }
+
+    /**
+     * Starts a step answered by the result cache unless the model is called.
+     */
+    Step startCached(AnalysisStage stage, String item) {
+        return new Step(stage, item, true);
+    }
+
+    AnalysisTrace finish(Throwable failure) {
+        return new AnalysisTrace(deviationId, startedAt, millisSince(start), outcome(failure), error(failure),
+                steps.stream().sorted(Comparator.comparingLong(AnalysisTrace.Step::startedAt)).toList());
+    }
+
+    static long bytes(String text) {
+        return text == null ? -1 : text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static long millisSince(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanos);
+    }
+
+    private static String outcome(Throwable failure) {
+        return failure == null ? "success" : "failure";
+    }
+
+    private static String error(Throwable failure) {
+        if (failure == null) {
+            return null;
+        }
+        // Checked exceptions of the model clients are wrapped, the cause tells what failed
+        Throwable cause = failure.getCause() == null ? failure : failure.getCause();
+        return cause.toString();
+    }
+
+    final class Step {
+        private final AnalysisStage stage;
+        private final String item;
+        private final long startedAt = System.currentTimeMillis();
+        private final long start = System.nanoTime();
+        private boolean cached;
+        private String model;
+        private long bytesIn = -1;
+        private long bytesOut = -1;
+        private int promptTokens = -1;
+        private int outputTokens = -1;
+
+        private Step(AnalysisStage stage, String item, boolean cached) {
+            this.stage = stage;
+            this.item = item;
+            this.cached = cached;
+        }
+
+        /**
+         * The model was called, the result was not cached.
+         */
+        Step generated(GeneratedText generated) {
+            cached = false;
+            model = generated.model();
+            promptTokens = generated.promptTokens();
+            outputTokens = generated.outputTokens();
+            return this;
+        }
+
+        /**
+         * The result was computed without tokens to count.
+         */
+        Step computed(String model) {
+            this.cached = false;
+            this.model = model;
+            return this;
+        }
+
+        Step bytesIn(long bytesIn) {
+            this.bytesIn = bytesIn;
+            return this;
+        }
+
+        Step bytesOut(long bytesOut) {
+            this.bytesOut = bytesOut;
+            return this;
+        }
+
+        void succeeded() {
+            finish(null);
+        }
+
+        void failed(Throwable failure) {
+            // A failed step never came from the cache
+            cached = false;
+            finish(failure);
+        }
+
+        private void finish(Throwable failure) {
+            steps.add(new AnalysisTrace.Step(stage.tag(), item, startedAt, millisSince(start), outcome(failure),
+                    cached, model, bytesIn, bytesOut, promptTokens, outputTokens, error(failure)));
+            listener.accept(stage, failure == null);
+        }
+    }
+}
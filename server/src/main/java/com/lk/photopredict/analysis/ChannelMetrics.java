@@ -0,0 +1,73 @@
+package com.lk.photopredict.analysis;
+
+import com.google.api.core.ApiFunction;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of the gRPC channel pool of one client, installed as its channel configurator. Counts the channels the
+ * pool creates, also those replacing a channel, so a count above the pool size shows channels not being reused.
+ * Calls in flight over the pool show how busy its channels are.
+ */
+@SuppressWarnings("rawtypes")
+class ChannelMetrics implements ApiFunction<ManagedChannelBuilder, ManagedChannelBuilder>, ClientInterceptor {
+
+    private final Counter created;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param client tag of the metrics
+     */
+    ChannelMetrics(String client, MeterRegistry meterRegistry) {
+        this.created = Counter.builder("grpc.client.channels.created")
+                .description("gRPC channels created by the channel pool of the client")
+                .tag("client", client)
+                .register(meterRegistry);
+        Gauge.builder("grpc.client.calls.active", inFlight, AtomicInteger::get)
+                .description("gRPC calls of the client started and not yet closed")
+                .tag("client", client)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public ManagedChannelBuilder apply(ManagedChannelBuilder builder) {
+        created.increment();
+        return builder.intercept(this);
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                               CallOptions callOptions, Channel next) {
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                inFlight.incrementAndGet();
+                try {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            inFlight.decrementAndGet();
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                } catch (RuntimeException e) {
+                    inFlight.decrementAndGet();
+                    throw e;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package com.lk.photopredict.analysis;
+
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.generativeai.ResponseHandler;
+
+/**
+ * Text of a model together with what it cost.
+ *
+ * @param text generated text
+ * @param model name of the model which generated it
+ * @param promptTokens tokens of the prompt, -1 when unknown
+ * @param outputTokens tokens of the generated text, -1 when unknown
+ */
+public record GeneratedText(String text, String model, int promptTokens, int outputTokens) {
+
+    static GeneratedText of(GenerateContentResponse response) {
+        if (!response.hasUsageMetadata()) {
+            return new GeneratedText(ResponseHandler.getText(response), VertexAIClient.MODEL_NAME, -1, -1);
+        }
+        GenerateContentResponse.UsageMetadata usage = response.getUsageMetadata();
+        return new GeneratedText(ResponseHandler.getText(response), VertexAIClient.MODEL_NAME,
+                usage.getPromptTokenCount(), usage.getCandidatesTokenCount());
+    }
+}
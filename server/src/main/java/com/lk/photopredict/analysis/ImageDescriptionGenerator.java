@@ -0,0 +1,15 @@
+package com.lk.photopredict.analysis;
+
+import java.io.IOException;
+
+/**
+ * Text description of stored photos.
+ */
+public interface ImageDescriptionGenerator {
+
+    /**
+     * @param imageId of the photo in the image bucket
+     * @param prompt instructions for the model, empty for a general description
+     */
+    GeneratedText describe(String imageId, String prompt) throws IOException;
+}
@@ -1,45 +1,82 @@
 package com.lk.photopredict.analysis;
 
-import com.lk.photopredict.payload.DeviationAnalysis;
 import com.lk.photopredict.repository.Bucket;
 import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.grpc.ChannelPoolSettings;
 import com.google.cloud.speech.v1.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-public class RecordTranscript {
+/**
+ * Speech to text for recordings.
+ * One {@link SpeechClient} is created for the whole application and closed with the context.
+ */
+@Component
+@Profile("!loadtest")
+public class RecordTranscript implements Transcriber {
 
     private final Logger logger = LoggerFactory.getLogger(RecordTranscript.class);
 
-    private final CredentialsProvider credentialsProvider;
+    // Recognition model and language, together they decide the transcription of a recording
+    public static final String MODEL_NAME = "speech-v1-default";
+    public static final String LANGUAGE_CODE = "en-US";
 
-    public RecordTranscript(CredentialsProvider credentialsProvider) {
-        this.credentialsProvider = credentialsProvider;
-    }
-
-    public String process(String id) {
-        logger.info("Starting transcription for record ID: {}", id);
-        // Instantiates a client
+    private final SpeechClient speechClient;
 
+    public RecordTranscript(
+            CredentialsProvider credentialsProvider,
+            MeterRegistry meterRegistry,
+            @Value("${speech.channel-pool-size:2}") int channelPoolSize) {
         SpeechSettings build;
         try {
-            build = SpeechSettings.newBuilder().setCredentialsProvider(credentialsProvider).build();
+            build = SpeechSettings.newBuilder()
+                    .setCredentialsProvider(credentialsProvider)
+                    .setTransportChannelProvider(SpeechSettings.defaultGrpcTransportProviderBuilder()
+                            .setChannelPoolSettings(ChannelPoolSettings.staticallySized(channelPoolSize))
+                            .setChannelConfigurator(new ChannelMetrics("speech", meterRegistry))
+                            .build())
+                    .build();
         } catch (IOException e) {
             logger.error("Failed to build speech settings", e);
             throw new RuntimeException(e);
         }
 
-        SpeechClient speechClient;
         try {
-            speechClient = SpeechClient.create(build);
+            this.speechClient = SpeechClient.create(build);
         } catch (IOException e) {
             logger.error("Failed to create speech client", e);
             throw new RuntimeException(e);
         }
+        logger.info("Speech client created with {} channels", channelPoolSize);
+    }
+
+    @Override
+    public String transcribe(String id) {
+        return process(id);
+    }
+
+    public String process(String id) {
+        logger.info("Starting transcription for record ID: {}", id);
+        try {
+            // Performs speech recognition on the audio file
+            RecognizeResponse response = speechClient.recognize(request(id));
+            return transcript(id, response);
+        } catch (Exception e) {
+            logger.error("Failed to transcribe record: {}", id, e);
+            throw new RuntimeException("Failed to transcribe record: " + id, e);
+        }
+    }
 
+    private RecognizeRequest request(String id) {
         // The path to the audio file to transcribe
         String gcsUri = Bucket.Name.Recording.gcsPath(id);
         logger.debug("Using GCS URI: {}", gcsUri);
@@ -47,34 +84,31 @@ public class RecordTranscript {
         // Builds the sync recognize request
         RecognitionConfig config =
                 RecognitionConfig.newBuilder()
-                        .setLanguageCode("en-US")
+                        .setLanguageCode(LANGUAGE_CODE)
                         .build();
         RecognitionAudio audio = RecognitionAudio.newBuilder().setUri(gcsUri).build();
+        return RecognizeRequest.newBuilder().setConfig(config).setAudio(audio).build();
+    }
 
+    private String transcript(String id, RecognizeResponse response) {
         String transcript = "";
-        try {
-            // Performs speech recognition on the audio file
-            RecognizeResponse response = speechClient.recognize(config, audio);
-            List<SpeechRecognitionResult> results = response.getResultsList();
-
-            for (SpeechRecognitionResult result : results) {
-                // There can be several alternative transcripts for a given chunk of speech. Just use the
-                // first (most likely) one here.
-                SpeechRecognitionAlternative alternative = result.getAlternativesList().getFirst();
-                transcript += alternative.getTranscript();
-                logger.info("Transcription for record {}: {}", id, transcript);
-            }
-        } catch (Exception e) {
-            logger.error("Failed to transcribe record: {}", id, e);
-            throw new RuntimeException("Failed to transcribe record: " + id, e);
+        List<SpeechRecognitionResult> results = response.getResultsList();
+        for (SpeechRecognitionResult result : results) {
+            // There can be several alternative transcripts for a given chunk of speech. Just use the
+            // first (most likely) one here.
+            SpeechRecognitionAlternative alternative = result.getAlternativesList().getFirst();
+            transcript += alternative.getTranscript();
+            logger.info("Transcription for record {}: {}", id, transcript);
         }
         return transcript;
     }
 
-    public void process(List<String> recordings, DeviationAnalysis deviationAnalysis) {
-        for(String rId : recordings) {
-            String transcription = this.process(rId);
-            deviationAnalysis.addTranscription(rId, transcription);
+    @PreDestroy
+    public void close() throws InterruptedException {
+        logger.info("Closing speech client");
+        speechClient.shutdown();
+        if (!speechClient.awaitTermination(10, TimeUnit.SECONDS)) {
+            speechClient.shutdownNow();
         }
     }
 }
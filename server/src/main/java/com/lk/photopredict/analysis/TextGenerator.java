@@ -0,0 +1,11 @@
+package com.lk.photopredict.analysis;
+
+import java.io.IOException;
+
+/**
+ * Text generated from a prompt.
+ */
+public interface TextGenerator {
+
+    GeneratedText generate(String prompt) throws IOException;
+}
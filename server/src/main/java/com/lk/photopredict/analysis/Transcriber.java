@@ -0,0 +1,13 @@
+package com.lk.photopredict.analysis;
+
+/**
+ * Speech to text of stored recordings.
+ */
+public interface Transcriber {
+
+    /**
+     * @param id of the recording in the recording bucket
+     * @return transcription, empty if nothing was recognized
+     */
+    String transcribe(String id);
+}
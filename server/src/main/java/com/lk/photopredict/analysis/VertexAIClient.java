@@ -0,0 +1,90 @@
+package com.lk.photopredict.analysis;
+
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.grpc.ChannelPoolSettings;
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.api.PredictionServiceClient;
+import com.google.cloud.vertexai.api.PredictionServiceSettings;
+import com.google.cloud.vertexai.generativeai.GenerativeModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.lk.photopredict.HackathonApplication.LOCATION;
+import static com.lk.photopredict.HackathonApplication.PROJECT_ID;
+
+/**
+ * Long-lived Vertex AI client shared by all generators.
+ * One gRPC channel pool is opened at startup, every generation call is sent over it.
+ */
+@Component
+@Profile("!loadtest")
+public class VertexAIClient {
+    private static final Logger logger = LoggerFactory.getLogger(VertexAIClient.class);
+
+    public static final String MODEL_NAME = "gemini-2.0-flash-001";
+
+    private final PredictionServiceClient predictionServiceClient;
+    private final VertexAI vertexAI;
+    private final GenerativeModel model;
+
+    private final Counter calls;
+
+    public VertexAIClient(
+            CredentialsProvider credentialsProvider,
+            MeterRegistry meterRegistry,
+            @Value("${vertexai.channel-pool-size:4}") int channelPoolSize) throws IOException {
+        logger.debug("Initializing VertexAI with project: {}, location: {} and {} channels", PROJECT_ID, LOCATION, channelPoolSize);
+        PredictionServiceSettings settings = PredictionServiceSettings.newBuilder()
+                .setEndpoint(LOCATION + "-aiplatform.googleapis.com:443")
+                .setCredentialsProvider(credentialsProvider)
+                .setTransportChannelProvider(PredictionServiceSettings.defaultGrpcTransportProviderBuilder()
+                        .setChannelPoolSettings(ChannelPoolSettings.staticallySized(channelPoolSize))
+                        .setChannelConfigurator(new ChannelMetrics("vertexai", meterRegistry))
+                        .build())
+                .build();
+        this.predictionServiceClient = PredictionServiceClient.create(settings);
+        this.vertexAI = new VertexAI.Builder()
+                .setCredentials(credentialsProvider.getCredentials())
+                .setProjectId(PROJECT_ID)
+                .setLocation(LOCATION)
+                .setPredictionClientSupplier(() -> predictionServiceClient)
+                .build();
+        this.model = new GenerativeModel(MODEL_NAME, vertexAI);
+        logger.info("VertexAI client built with model {} and {} channels", MODEL_NAME, channelPoolSize);
+
+        // Channels created and calls in flight come from the channel pool, see ChannelMetrics
+        this.calls = Counter.builder("vertexai.client.calls")
+                .description("Generation calls sent over the shared channel pool")
+                .register(meterRegistry);
+    }
+
+    public GenerativeModel model() {
+        return model;
+    }
+
+    public GenerateContentResponse generateContent(Content content) throws IOException {
+        calls.increment();
+        return model.generateContent(content);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        logger.info("Closing VertexAI client after {} calls", (long) calls.count());
+        vertexAI.close();
+        predictionServiceClient.shutdown();
+        if (!predictionServiceClient.awaitTermination(10, TimeUnit.SECONDS)) {
+            predictionServiceClient.shutdownNow();
+        }
+    }
+}
@@ -1,36 +1,35 @@
 package com.lk.photopredict.analysis;
 
-import com.lk.photopredict.payload.DeviationAnalysis;
 import com.google.api.gax.core.CredentialsProvider;
 import com.google.cloud.aiplatform.v1.Model;
 import com.google.cloud.aiplatform.v1.ModelServiceClient;
 import com.google.cloud.aiplatform.v1.ModelServiceSettings;
-import com.google.cloud.vertexai.VertexAI;
 import com.google.cloud.vertexai.api.Content;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.api.Part;
 import com.google.cloud.vertexai.generativeai.ContentMaker;
-import com.google.cloud.vertexai.generativeai.GenerativeModel;
 import com.google.cloud.vertexai.generativeai.ResponseHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Base64;
-import java.util.List;
 
 import static com.lk.photopredict.HackathonApplication.LOCATION;
 import static com.lk.photopredict.HackathonApplication.PROJECT_ID;
 
-public class VertexAIImageDescriptionGenerator {
+@Component
+@Profile("!loadtest")
+public class VertexAIImageDescriptionGenerator implements ImageDescriptionGenerator {
     private static final Logger logger = LoggerFactory.getLogger(VertexAIImageDescriptionGenerator.class);
 
-    private static final String MODEL_NAME = "gemini-2.0-flash-001"; // Added version number
-
     private final CredentialsProvider credentialsProvider;
+    private final VertexAIClient vertexAIClient;
 
     public static String LONG_PROMPT = """
                 Analyze the provided photo of the electrical installation and identify potential issues. Review the following aspects and provide suggestions for improvement or further investigation:
@@ -45,8 +44,9 @@ public class VertexAIImageDescriptionGenerator {
                 9. Maintenance Access and Ventilation: Does the installation have sufficient space for easy maintenance and adequate ventilation, especially near heat-producing equipment? Provide recommendations for reorganization if necessary.
                 Please provide a summary with specific suggestions for any repairs, further review, or potential hazards identified.""";
 
-    public VertexAIImageDescriptionGenerator(CredentialsProvider credentialsProvider) {
+    public VertexAIImageDescriptionGenerator(CredentialsProvider credentialsProvider, VertexAIClient vertexAIClient) {
         this.credentialsProvider = credentialsProvider;
+        this.vertexAIClient = vertexAIClient;
     }
 
     public void listAvailableModels() throws IOException {
@@ -78,31 +78,24 @@ public class VertexAIImageDescriptionGenerator {
         byte[] imageBytes = Files.readAllBytes(path);
         String base64Image = Base64.getEncoder().encodeToString(imageBytes);
 
-        logger.debug("Initializing VertexAI with project: {} and location: {}", PROJECT_ID, LOCATION);
-        VertexAI.Builder builder = new VertexAI.Builder()
-                .setCredentials(credentialsProvider.getCredentials())
-                .setProjectId(PROJECT_ID)
-                .setLocation(LOCATION);
-        try (VertexAI vertexAI = builder.build()) {
-            logger.debug("VertexAI client built successfully");
-            // Create a generative model instance
-            GenerativeModel model = new GenerativeModel(MODEL_NAME, vertexAI);
-            logger.debug("Generative model created with name: {}", MODEL_NAME);
-
-            // Create content with text prompt and image
-            Content content = ContentMaker.fromMultiModalData(
-                    "Please provide a detailed description of this image. Include what you see, the setting, any people or objects present, colors, atmosphere, and any other notable elements. Be descriptive but concise.",
-                    createImagePartFromBase64(base64Image, imagePath)
-            );
-
-            // Generate content from the model
-            logger.debug("Sending request to VertexAI");
-            GenerateContentResponse response = model.generateContent(content);
-            logger.debug("Received response from VertexAI");
-
-            // Parse and return the response
-            return ResponseHandler.getText(response);
-        }
+        // Create content with text prompt and image
+        Content content = ContentMaker.fromMultiModalData(
+                "Please provide a detailed description of this image. Include what you see, the setting, any people or objects present, colors, atmosphere, and any other notable elements. Be descriptive but concise.",
+                createImagePartFromBase64(base64Image, imagePath)
+        );
+
+        // Generate content from the model
+        logger.debug("Sending request to VertexAI");
+        GenerateContentResponse response = vertexAIClient.generateContent(content);
+        logger.debug("Received response from VertexAI");
+
+        // Parse and return the response
+        return ResponseHandler.getText(response);
+    }
+
+    @Override
+    public GeneratedText describe(String imageId, String prompt) throws IOException {
+        return GeneratedText.of(describeFromGcs(imageId, prompt));
     }
 
     /**
@@ -113,36 +106,27 @@ public class VertexAIImageDescriptionGenerator {
      * @throws IOException If there is an error calling the API
      */
     public String generateImageDescriptionFromGcs(String imageId, String prompt) throws IOException {
+        return ResponseHandler.getText(describeFromGcs(imageId, prompt));
+    }
+
+    private GenerateContentResponse describeFromGcs(String imageId, String prompt) throws IOException {
         logger.debug("Generating image description from GCS: {}", imageId);
         String gcsUri = "gs://h2025-images/" + imageId;
         logger.debug("Using GCS URI: {}", gcsUri);
 
-        logger.debug("Initializing VertexAI with project: {} and location: {}", PROJECT_ID, LOCATION);
-        VertexAI.Builder builder = new VertexAI.Builder()
-                .setCredentials(credentialsProvider.getCredentials())
-                .setProjectId(PROJECT_ID)
-                .setLocation(LOCATION);
-        try (VertexAI vertexAI = builder.build()) {
-            logger.debug("VertexAI client built successfully");
-            // Create a generative model instance
-            GenerativeModel model = new GenerativeModel(MODEL_NAME, vertexAI);
-            logger.debug("Generative model created with name: {}", MODEL_NAME);
-
-            // Create content with text prompt and GCS image reference
-            String defaultPrompt = "Please provide a detailed description of this image. Include what you see, the setting, any people or objects present, colors, atmosphere, and any other notable elements. Be descriptive but concise.";
-            Content content = ContentMaker.fromMultiModalData(prompt.isEmpty() ?
-                            defaultPrompt : prompt,
-                    createImagePartFromGcs(gcsUri)
-            );
-
-            // Generate content from the model
-            logger.debug("Sending request to VertexAI");
-            GenerateContentResponse response = model.generateContent(content);
-            logger.debug("Received response from VertexAI");
-
-            // Parse and return the response
-            return ResponseHandler.getText(response);
-        }
+        // Create content with text prompt and GCS image reference
+        String defaultPrompt = "Please provide a detailed description of this image. Include what you see, the setting, any people or objects present, colors, atmosphere, and any other notable elements. Be descriptive but concise.";
+        Content content = ContentMaker.fromMultiModalData(prompt.isEmpty() ?
+                        defaultPrompt : prompt,
+                createImagePartFromGcs(gcsUri)
+        );
+
+        // Generate content from the model
+        logger.debug("Sending request to VertexAI");
+        GenerateContentResponse response = vertexAIClient.generateContent(content);
+        logger.debug("Received response from VertexAI");
+
+        return response;
     }
 
     /**
@@ -209,16 +193,4 @@ public class VertexAIImageDescriptionGenerator {
             return "image/jpeg";
         }
     }
-
-    public void generateImageDescriptions(List<String> images, DeviationAnalysis deviationAnalysis) {
-        for(String image : images) {
-            String decription;
-            try {
-                decription = this.generateImageDescriptionFromGcs(image, LONG_PROMPT);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            deviationAnalysis.addImageDescription(image, decription);
-        }
-    }
 }
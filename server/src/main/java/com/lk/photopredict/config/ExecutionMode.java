@@ -0,0 +1,35 @@
+package com.lk.photopredict.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads used for blocking cloud I/O.
+ * With {@code spring.threads.virtual.enabled=true} (profile {@code virtual}) Tomcat handles requests on virtual
+ * threads and so do our own executors, otherwise all of them use platform threads.
+ */
+@Component
+public class ExecutionMode {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionMode.class);
+
+    private final boolean virtual;
+
+    public ExecutionMode(@Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        this.virtual = virtual;
+        logger.info("Blocking I/O runs on {} threads", virtual ? "virtual" : "platform");
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public ThreadFactory threadFactory(String prefix) {
+        return virtual
+                ? Thread.ofVirtual().name(prefix, 0).factory()
+                : Thread.ofPlatform().name(prefix, 0).factory();
+    }
+}
@@ -1,16 +1,32 @@
 package com.lk.photopredict.controller;
 
+import com.lk.photopredict.analysis.AnalysisJobs;
+import com.lk.photopredict.payload.AnalysisStatus;
+import com.lk.photopredict.payload.AnalysisTrace;
 import com.lk.photopredict.payload.DeviationAnalysis;
 import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.DeviationIndex;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/deviations/{id}/analysis")
@@ -19,28 +35,135 @@ public class DeviationAnalysisController {
     private static final Logger logger = LoggerFactory.getLogger(DeviationAnalysisController.class);
     private final DataStore deviationStore;
     private final ObjectMapper objectMapper;
+    private final AnalysisJobs analysisJobs;
+    private final DeviationIndex deviationIndex;
+    private final long maxWaitSeconds;
 
-    public DeviationAnalysisController(@Qualifier("deviation") DataStore deviationStore, ObjectMapper objectMapper) {
+    public DeviationAnalysisController(
+            @Qualifier("deviation") DataStore deviationStore,
+            ObjectMapper objectMapper,
+            AnalysisJobs analysisJobs,
+            DeviationIndex deviationIndex,
+            @Value("${analysis.jobs.max-wait-seconds:30}") long maxWaitSeconds) {
         this.deviationStore = deviationStore;
         this.objectMapper = objectMapper;
+        this.analysisJobs = analysisJobs;
+        this.deviationIndex = deviationIndex;
+        this.maxWaitSeconds = maxWaitSeconds;
     }
 
+    /**
+     * Empty 200 response while there is no analysis yet.
+     */
     @GetMapping
-    public DeviationAnalysis get(@PathVariable String id) {
+    public DeferredResult<ResponseEntity<DeviationAnalysis>> get(@PathVariable String id, @RequestHeader HttpHeaders headers) {
         logger.info("Fetching deviation analysis for id: {}", id);
-        String analysisPayload = deviationStore.get(id + DeviationAnalysis.ID_SUFFIX);
-        if (analysisPayload == null) {
-            logger.warn("No deviation analysis found for id: {}", id);
-            return null;
+        AnalysisStatus status = analysisJobs.status(id);
+        if (status != null && !status.state().isFinished()) {
+            // Not in the storage yet, no need to ask
+            DeferredResult<ResponseEntity<DeviationAnalysis>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.ok().build());
+            return result;
+        }
+        String analysisId = id + DeviationAnalysis.ID_SUFFIX;
+        return Responses.deferred(deviationStore.metadataAsync(analysisId).<ResponseEntity<DeviationAnalysis>>thenCompose(metadata -> {
+            if (metadata == null) {
+                logger.warn("No deviation analysis found for id: {}", id);
+                return CompletableFuture.completedFuture(ResponseEntity.ok().build());
+            }
+            if (Responses.isNotModified(headers, metadata)) {
+                logger.debug("Deviation analysis for id {} not modified", id);
+                return CompletableFuture.completedFuture(Responses.notModified(metadata));
+            }
+            // Validators of what is actually read, the analysis may be rewritten since its metadata was read
+            return deviationStore.getValidatedAsync(analysisId).thenApply(analysisPayload -> {
+                if (analysisPayload == null) {
+                    logger.warn("No deviation analysis found for id: {}", id);
+                    return ResponseEntity.ok().build();
+                }
+                try {
+                    logger.debug("Attempting to parse deviation analysis JSON");
+                    DeviationAnalysis analysis = objectMapper.readValue(analysisPayload.content(), DeviationAnalysis.class);
+                    logger.debug("Successfully retrieved and parsed deviation analysis for id: {}", id);
+                    return Responses.ok(analysisPayload.metadata()).body(analysis);
+                } catch (JsonProcessingException e) {
+                    logger.error("Failed to parse deviation analysis for id: {}", id, e);
+                    throw new RuntimeException(e);
+                }
+            });
+        }));
+    }
+
+    /**
+     * Timeline of the last analysis of the deviation, 404 Not Found before the first analysis.
+     */
+    @GetMapping("/trace")
+    public DeferredResult<ResponseEntity<AnalysisTrace>> trace(@PathVariable String id, @RequestHeader HttpHeaders headers) {
+        logger.info("Fetching analysis trace for id: {}", id);
+        String traceId = id + AnalysisTrace.ID_SUFFIX;
+        return Responses.deferred(deviationStore.metadataAsync(traceId).<ResponseEntity<AnalysisTrace>>thenCompose(metadata -> {
+            if (metadata == null) {
+                logger.debug("No analysis trace found for id: {}", id);
+                return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+            }
+            if (Responses.isNotModified(headers, metadata)) {
+                return CompletableFuture.completedFuture(Responses.notModified(metadata));
+            }
+            return deviationStore.getValidatedAsync(traceId).thenApply(tracePayload -> {
+                if (tracePayload == null) {
+                    return ResponseEntity.notFound().build();
+                }
+                try {
+                    return Responses.ok(tracePayload.metadata())
+                            .body(objectMapper.readValue(tracePayload.content(), AnalysisTrace.class));
+                } catch (JsonProcessingException e) {
+                    logger.error("Failed to parse analysis trace for id: {}", id, e);
+                    throw new RuntimeException(e);
+                }
+            });
+        }));
+    }
+
+    /**
+     * Progress of the analysis of the deviation. With {@code version} of a previous answer and {@code waitSeconds},
+     * the answer is held until the analysis changes or the wait is over, at most
+     * {@code analysis.jobs.max-wait-seconds}. A finished analysis is answered at once.
+     * 404 Not Found when the deviation has no analysis, it had no media or its analysis was lost on a restart.
+     */
+    @GetMapping("/status")
+    public DeferredResult<ResponseEntity<AnalysisStatus>> status(
+            @PathVariable String id,
+            @RequestParam(required = false) Long version,
+            @RequestParam(defaultValue = "0") long waitSeconds) {
+        AnalysisStatus status = analysisJobs.status(id);
+        if (status == null) {
+            // Not submitted to this instance or finished long ago, the index knows whether it was analyzed. Polled,
+            // so the loaded index answers without a storage call.
+            DeviationIndex.Entry entry = deviationIndex.cached(id);
+            if (entry == null || !entry.analyzed()) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No analysis of deviation " + id);
+            }
+            status = AnalysisStatus.done(id);
         }
-        try {
-            logger.debug("Attempting to parse deviation analysis JSON");
-            DeviationAnalysis analysis = objectMapper.readValue(analysisPayload, DeviationAnalysis.class);
-            logger.debug("Successfully retrieved and parsed deviation analysis for id: {}", id);
-            return analysis;
-        } catch (JsonProcessingException e) {
-            logger.error("Failed to parse deviation analysis for id: {}", id, e);
-            throw new RuntimeException(e);
+        long wait = Math.min(waitSeconds, maxWaitSeconds);
+        CompletableFuture<AnalysisStatus> changed = version == null || wait <= 0 ? null : analysisJobs.changeAfter(id, version);
+        if (changed == null) {
+            DeferredResult<ResponseEntity<AnalysisStatus>> result = new DeferredResult<>();
+            result.setResult(statusResponse(status));
+            return result;
         }
+        AnalysisStatus current = status;
+        DeferredResult<ResponseEntity<AnalysisStatus>> result = new DeferredResult<>(TimeUnit.SECONDS.toMillis(wait));
+        // Unchanged when the wait is over, answered with the status as it is
+        result.onTimeout(() -> {
+            AnalysisStatus latest = analysisJobs.status(id);
+            result.setResult(statusResponse(latest == null ? current : latest));
+        });
+        changed.thenAccept(next -> result.setResult(statusResponse(next)));
+        return result;
+    }
+
+    private static ResponseEntity<AnalysisStatus> statusResponse(AnalysisStatus status) {
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(status);
     }
 }
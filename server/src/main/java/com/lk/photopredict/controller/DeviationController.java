@@ -1,40 +1,56 @@
 package com.lk.photopredict.controller;
 
-import com.lk.photopredict.analysis.RecordTranscript;
-import com.lk.photopredict.analysis.VertexAIImageDescriptionGenerator;
-import com.lk.photopredict.analysis.VertexAITextGenerator;
+import com.lk.photopredict.analysis.AnalysisJobs;
+import com.lk.photopredict.analysis.AnalysisScheduler;
+import com.lk.photopredict.media.ImageVariants;
+import com.lk.photopredict.payload.AnalysisTrace;
 import com.lk.photopredict.payload.DeviationAnalysis;
-import com.lk.photopredict.payload.Solution;
+import com.lk.photopredict.repository.BatchDeleteResult;
 import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.DeviationIndex;
+import com.lk.photopredict.repository.StorageBusyException;
 import com.lk.photopredict.payload.Deviation;
 import com.lk.photopredict.payload.DeviationRequest;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.api.gax.core.CredentialsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/deviations")
 public class DeviationController {
     private static final Logger logger = LoggerFactory.getLogger(DeviationController.class);
 
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
 
     private final DataStore deviationStorage;
     private final DataStore photosStorage;
@@ -42,47 +58,215 @@ public class DeviationController {
 
     private final ObjectMapper objectMapper;
 
-    private final CredentialsProvider credentialsProvider;
+    private final DeviationIndex deviationIndex;
+    private final AnalysisScheduler analysisScheduler;
+    private final AnalysisJobs analysisJobs;
+    private final ImageVariants imageVariants;
+
+    // Media uploads of one request running at the same time
+    private final int uploadParallelism;
 
     @Autowired
     public DeviationController(
             ObjectMapper objectMapper,
             @Qualifier("image") DataStore imageStore,
             @Qualifier("deviation") DataStore deviationStorage,
-            @Qualifier("recording") DataStore recordingStorage, CredentialsProvider credentialsProvider) {
+            @Qualifier("recording") DataStore recordingStorage,
+            DeviationIndex deviationIndex,
+            AnalysisScheduler analysisScheduler,
+            AnalysisJobs analysisJobs,
+            ImageVariants imageVariants,
+            @Value("${deviations.upload-parallelism:4}") int uploadParallelism) {
         this.deviationStorage = deviationStorage;
         this.photosStorage = imageStore;
         this.recordingStorage = recordingStorage;
         this.objectMapper = objectMapper;
-        this.credentialsProvider = credentialsProvider;
+        this.deviationIndex = deviationIndex;
+        this.analysisScheduler = analysisScheduler;
+        this.analysisJobs = analysisJobs;
+        this.imageVariants = imageVariants;
+        this.uploadParallelism = uploadParallelism;
     }
 
     @PostMapping
     public Deviation create(@RequestBody DeviationRequest request) {
         logger.info("Creating new deviation");
+        validate(request.images(), request.recordings(), request.comment());
+
+        try (AnalysisScheduler.Reservation reservation = reserveAnalysis(request.images(), request.recordings())) {
+            // Only process non-empty fields
+            List<Upload> photos = new ArrayList<>();
+            if (request.images() != null) {
+                request.images().forEach(image -> photos.add(new Upload(photosStorage, () -> photosStorage.decodeAndSaveAsync(image))));
+            }
+            List<Upload> recordings = new ArrayList<>();
+            if (request.recordings() != null) {
+                request.recordings().forEach(recording -> recordings.add(new Upload(recordingStorage, () -> recordingStorage.decodeAndSaveAsync(recording))));
+            }
+            List<String> ids = uploadAll(photos, recordings);
+
+            return saveAndAnalyze(ids.subList(0, photos.size()), ids.subList(photos.size(), ids.size()),
+                    request.comment(), reservation);
+        }
+    }
+
+    /**
+     * Multipart variant of {@link #create(DeviationRequest)}. Every part is streamed into the storage
+     * as it is read, so photos and recordings are never decoded into memory as a whole.
+     */
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Deviation createMultipart(
+            @RequestPart(value = "images", required = false) List<MultipartFile> images,
+            @RequestPart(value = "recordings", required = false) List<MultipartFile> recordings,
+            @RequestParam(value = "comment", required = false) String comment) {
+        logger.info("Creating new deviation from multipart request");
+        validate(images, recordings, comment);
+
+        try (AnalysisScheduler.Reservation reservation = reserveAnalysis(images, recordings)) {
+            List<Upload> photos = uploads(photosStorage, images);
+            List<Upload> recordingUploads = uploads(recordingStorage, recordings);
+            List<String> ids = uploadAll(photos, recordingUploads);
+
+            return saveAndAnalyze(ids.subList(0, photos.size()), ids.subList(photos.size(), ids.size()),
+                    comment, reservation);
+        }
+    }
 
+    private void validate(List<?> images, List<?> recordings, String comment) {
         // Validate that at least one field is not empty
-        if ((request.images() == null || request.images().isEmpty()) &&
-            (request.recordings() == null || request.recordings().isEmpty()) &&
-            (request.comment() == null || request.comment().trim().isEmpty())) {
+        if ((images == null || images.isEmpty()) &&
+            (recordings == null || recordings.isEmpty()) &&
+            (comment == null || comment.trim().isEmpty())) {
             logger.warn("Attempted to create deviation with all empty fields");
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                 "At least one of images, recordings, or comment must be provided");
         }
+    }
 
-        String deviationId = UUID.randomUUID().toString();
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
+    /**
+     * Reserved before anything is uploaded, so a full analysis queue rejects the request with 429 up front.
+     * Returns null when there is nothing to analyze.
+     */
+    private AnalysisScheduler.Reservation reserveAnalysis(List<?> images, List<?> recordings) {
+        boolean hasMedia = (images != null && !images.isEmpty()) || (recordings != null && !recordings.isEmpty());
+        return hasMedia ? analysisScheduler.reserve() : null;
+    }
 
-        // Only process non-empty fields
-        List<String> photos = (request.images() != null && !request.images().isEmpty())
-            ? photosStorage.decodeAndSaveAll(request.images())
-            : new ArrayList<>();
+    private List<Upload> uploads(DataStore storage, List<MultipartFile> parts) {
+        List<Upload> uploads = new ArrayList<>();
+        if (parts == null) {
+            return uploads;
+        }
+        for (MultipartFile part : parts) {
+            if (part.isEmpty()) {
+                logger.debug("Skipping empty part {}", part.getOriginalFilename());
+                continue;
+            }
+            uploads.add(new Upload(storage, () -> {
+                InputStream data;
+                try {
+                    data = part.getInputStream();
+                } catch (IOException e) {
+                    logger.error("Failed to read multipart part {}", part.getOriginalFilename(), e);
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Failed to read uploaded part", e);
+                }
+                return storage.saveAsync(data).whenComplete((id, e) -> {
+                    try {
+                        data.close();
+                    } catch (IOException closeFailure) {
+                        logger.debug("Failed to close multipart part {}", part.getOriginalFilename(), closeFailure);
+                    }
+                });
+            }));
+        }
+        return uploads;
+    }
 
-        List<String> recordings = (request.recordings() != null && !request.recordings().isEmpty())
-            ? recordingStorage.decodeAndSaveAll(request.recordings())
-            : new ArrayList<>();
+    /**
+     * Runs the uploads, at most {@code deviations.upload-parallelism} at the same time. Either all media are saved
+     * or none: after a failure no further uploads are started and the blobs saved so far are deleted again.
+     *
+     * @return IDs of the saved media in order of the uploads
+     */
+    @SafeVarargs
+    private List<String> uploadAll(List<Upload>... groups) {
+        List<Upload> uploads = new ArrayList<>();
+        for (List<Upload> group : groups) {
+            uploads.addAll(group);
+        }
+        Semaphore permits = new Semaphore(uploadParallelism);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<String>> running = new ArrayList<>();
+        for (Upload upload : uploads) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+                break;
+            }
+            if (failure.get() != null) {
+                break;
+            }
+            CompletableFuture<String> saved;
+            try {
+                saved = upload.start().get();
+            } catch (RuntimeException e) {
+                saved = CompletableFuture.failedFuture(e);
+            }
+            running.add(saved.whenComplete((id, e) -> {
+                if (e != null) {
+                    failure.compareAndSet(null, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                }
+                permits.release();
+            }));
+        }
+        // Wait for every started upload, also the failed ones, before cleaning up
+        CompletableFuture.allOf(running.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        if (failure.get() == null) {
+            return running.stream().map(CompletableFuture::join).toList();
+        }
+
+        Throwable cause = failure.get();
+        logger.error("Failed to upload media of a deviation, deleting the media saved so far", cause);
+        // With content addressed storage a saved ID may be an older upload of another deviation, unreferenced ones
+        // are deleted by the orphan media sweep
+        Map<DataStore, List<String>> saved = new LinkedHashMap<>();
+        for (int i = 0; i < running.size(); i++) {
+            CompletableFuture<String> upload = running.get(i);
+            if (!upload.isCompletedExceptionally() && !uploads.get(i).storage().isContentAddressed()) {
+                saved.computeIfAbsent(uploads.get(i).storage(), storage -> new ArrayList<>()).add(upload.join());
+            }
+        }
+        if (!saved.isEmpty()) {
+            BatchDeleteResult result = DataStore.deleteAll(saved);
+            if (!result.isComplete()) {
+                logger.error("Failed to delete {} media of a failed upload: {}", result.failed().size(), result.failed().keySet());
+            }
+        }
+        if (cause instanceof ResponseStatusException responseStatusException) {
+            throw responseStatusException;
+        }
+        if (cause instanceof StorageBusyException storageBusyException) {
+            throw storageBusyException;
+        }
+        if (cause instanceof TimeoutException) {
+            throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Storage did not answer in time", cause);
+        }
+        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to save media", cause);
+    }
+
+    /**
+     * Media upload not started yet.
+     */
+    private record Upload(DataStore storage, Supplier<CompletableFuture<String>> start) {
+    }
 
-        String comment = (request.comment() != null) ? request.comment().trim() : "";
+    private Deviation saveAndAnalyze(List<String> photos, List<String> recordings, String requestComment,
+                                     AnalysisScheduler.Reservation reservation) {
+        String deviationId = UUID.randomUUID().toString();
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
+        String comment = (requestComment != null) ? requestComment.trim() : "";
 
         // Save deviation metadata
         Deviation deviation = new Deviation(
@@ -100,105 +284,89 @@ public class DeviationController {
             throw new RuntimeException(e);
         }
         deviationStorage.save(deviationPayload, deviationId);
+        deviationIndex.put(deviation);
         logger.info("Successfully created deviation with ID: {}", deviationId);
 
-        // Start analysis only if there are images or recordings to analyze
-        if (!photos.isEmpty() || !recordings.isEmpty()) {
-            executorService.submit(() -> {
-                DeviationAnalysis deviationAnalysis = new DeviationAnalysis();
-
-                if (!recordings.isEmpty()) {
-                    RecordTranscript recordTranscript = new RecordTranscript(credentialsProvider);
-                    recordTranscript.process(recordings, deviationAnalysis);
-                }
-
-                if (!photos.isEmpty()) {
-                    VertexAIImageDescriptionGenerator vertexAIImageDescriptionGenerator = new VertexAIImageDescriptionGenerator(credentialsProvider);
-                    vertexAIImageDescriptionGenerator.generateImageDescriptions(photos, deviationAnalysis);
-
-                    String prompt = deviationAnalysis.solutionPrompt(deviation);
-                    String text;
-                    try {
-                        logger.debug("Generating text from Vertex AI using prompt");
-                        text = new VertexAITextGenerator(credentialsProvider).generateText(prompt);
-                        logger.debug("Successfully generated text from Vertex AI, response length: {}", text.length());
-                    } catch (IOException e) {
-                        logger.error("Failed to generate text from Vertex AI: {}", e.getMessage(), e);
-                        throw new RuntimeException(e);
-                    }
-                    Solution solution;
-                    try {
-                        logger.debug("Attempting to parse solution JSON from Vertex AI response");
-                        solution = objectMapper.readValue(text.replace("```json", "").replace("```", ""), Solution.class);
-                        logger.debug("Successfully parsed solution JSON: issueType={}, priorityLevel={}, repairEffortHours={}",
-                            solution.getIssueType(), solution.getPriorityLevel(), solution.getRepairEffortHours());
-                    } catch (JsonProcessingException e) {
-                        logger.error("Failed to parse solution JSON from Vertex AI response: {}", e.getMessage(), e);
-                        throw new RuntimeException(e);
-                    }
-                    deviationAnalysis.setSolution(solution);
-                }
+        imageVariants.schedule(photos);
 
-                String da;
-                try {
-                    logger.debug("Serializing deviation analysis to JSON");
-                    da = objectMapper.writeValueAsString(deviationAnalysis);
-                    logger.debug("Successfully serialized deviation analysis, JSON length: {}", da.length());
-                } catch (JsonProcessingException e) {
-                    logger.error("Failed to serialize deviation analysis: {}", e.getMessage(), e);
-                    throw new RuntimeException(e);
-                }
-                deviationStorage.save(da, deviationId + DeviationAnalysis.ID_SUFFIX);
-            });
+        // Start analysis only if there are images or recordings to analyze
+        if (reservation != null && (!photos.isEmpty() || !recordings.isEmpty())) {
+            reservation.submit(deviation);
         }
 
         return deviation;
     }
 
+    /**
+     * Deviations ordered by timestamp, then by ID. Without {@code limit} all matching deviations are returned at once,
+     * otherwise the cursor of the next page is sent in the {@value #NEXT_CURSOR_HEADER} header.
+     *
+     * @param limit maximum number of deviations
+     * @param cursor from the previous page
+     * @param from earliest timestamp, inclusive
+     * @param to latest timestamp, exclusive
+     * @param analyzed only deviations with or without analysis
+     */
     @GetMapping
-    public List<Deviation> getAll() {
-        logger.info("Retrieving all deviations");
-        List<String> deviationIds = deviationStorage.ids();
-        logger.debug("Found {} deviation IDs in storage", deviationIds.size());
-
-        List<Deviation> deviations = new ArrayList<>();
-        for (String id : deviationIds) {
-            // Skip analysis entries
-            if (id.endsWith(DeviationAnalysis.ID_SUFFIX)) {
-                logger.debug("Skipping analysis entry with ID: {}", id);
-                continue;
-            }
-
-            logger.debug("Processing deviation ID: {}", id);
-            String content = deviationStorage.get(id);
-            if (content == null) {
-                logger.warn("No content found for deviation ID: {}", id);
-                continue;
-            }
-            try {
-                Deviation deviation = objectMapper.readValue(content, Deviation.class);
-                deviations.add(deviation);
-                logger.debug("Successfully parsed deviation with ID: {}", id);
-            } catch (JsonProcessingException e) {
-                logger.error("Failed to parse deviation: {}", id, e);
-                // Continue processing other deviations instead of failing the entire request
-            }
+    public ResponseEntity<List<Deviation>> getAll(
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(value = "analyzed", required = false) Boolean analyzed) {
+        logger.info("Retrieving deviations, limit: {}, cursor: {}", limit, cursor);
+        if (limit != null && limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive");
         }
-        logger.info("Successfully retrieved {} deviations", deviations.size());
-        return deviations;
+        DeviationIndex.Page page;
+        try {
+            page = deviationIndex.page(cursor, limit == null ? Integer.MAX_VALUE : limit,
+                    new DeviationIndex.Filter(from, to, analyzed));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        logger.info("Successfully retrieved {} deviations", page.deviations().size());
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.deviations());
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Deviation> get(@PathVariable("id") String deviationId) throws JsonProcessingException {
+    public DeferredResult<ResponseEntity<Deviation>> get(@PathVariable("id") String deviationId,
+                                                         @RequestHeader HttpHeaders headers) {
         logger.info("Retrieving deviation with ID: {}", deviationId);
-        String content = deviationStorage.get(deviationId);
-        if (content == null) {
-            logger.warn("Deviation not found with ID: {}", deviationId);
-            return ResponseEntity.notFound().build();
-        }
-        Deviation deviation = objectMapper.readValue(content, Deviation.class);
-        logger.info("Successfully retrieved deviation with ID: {}", deviationId);
-        return ResponseEntity.ok(deviation);
+        // The content is read only when the client's copy is outdated
+        return Responses.deferred(deviationStorage.metadataAsync(deviationId).<ResponseEntity<Deviation>>thenCompose(metadata -> {
+            if (metadata == null) {
+                logger.warn("Deviation not found with ID: {}", deviationId);
+                return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+            }
+            if (Responses.isNotModified(headers, metadata)) {
+                logger.debug("Deviation with ID {} not modified", deviationId);
+                return CompletableFuture.completedFuture(Responses.notModified(metadata));
+            }
+            // Validators of what is actually read, the deviation may be rewritten since its metadata was read
+            return deviationStorage.getValidatedAsync(deviationId).thenApply(content -> {
+                if (content == null) {
+                    logger.warn("Deviation not found with ID: {}", deviationId);
+                    return ResponseEntity.notFound().build();
+                }
+                Deviation deviation;
+                try {
+                    deviation = objectMapper.readValue(content.content(), Deviation.class);
+                } catch (JsonProcessingException e) {
+                    logger.error("Failed to parse deviation with ID: {}", deviationId, e);
+                    throw new RuntimeException(e);
+                }
+                logger.info("Successfully retrieved deviation with ID: {}", deviationId);
+                // Cached, but revalidated with the ETag on every use
+                return Responses.ok(content.metadata())
+                        .cacheControl(CacheControl.noCache().cachePrivate())
+                        .body(deviation);
+            });
+        }));
     }
 
     @DeleteMapping("/{id}")
@@ -213,23 +381,35 @@ public class DeviationController {
 
         Deviation deviation = objectMapper.readValue(content, Deviation.class);
 
-        // Delete all associated images
-        for (String imageId : deviation.images()) {
-            photosStorage.delete(imageId);
+        // Media and analysis first, all in the same batch. The deviation itself goes last, so after a partial
+        // failure it is still there and a retry deletes whatever is left.
+        String analysisId = deviationId + DeviationAnalysis.ID_SUFFIX;
+        String traceId = deviationId + AnalysisTrace.ID_SUFFIX;
+        // Content addressed media may be shared with other deviations, they are left to the orphan sweep
+        List<String> images = new ArrayList<>();
+        if (!photosStorage.isContentAddressed()) {
+            deviation.images().forEach(photoId -> {
+                images.add(photoId);
+                images.addAll(ImageVariants.Variant.ids(photoId));
+            });
         }
-
-        // Delete all associated recordings
-        for (String recordingId : deviation.recordings()) {
-            recordingStorage.delete(recordingId);
+        List<String> recordings = recordingStorage.isContentAddressed() ? List.of() : deviation.recordings();
+        Map<DataStore, List<String>> blobs = new LinkedHashMap<>();
+        blobs.put(photosStorage, images);
+        blobs.put(recordingStorage, recordings);
+        blobs.put(deviationStorage, List.of(analysisId, traceId));
+        BatchDeleteResult result = DataStore.deleteAll(blobs);
+        logger.debug("Deleted {} blobs of deviation {}, {} already missing", result.deleted().size(), deviationId, result.missing().size());
+        if (!result.isComplete()) {
+            logger.error("Failed to delete {} blobs of deviation {}: {}", result.failed().size(), deviationId, result.failed().keySet());
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Failed to delete " + result.failed().size() + " files of the deviation, retry the delete");
         }
 
-        // Delete the analysis data
-        String analysisId = deviationId + DeviationAnalysis.ID_SUFFIX;
-        deviationStorage.delete(analysisId);
-        logger.debug("Deleted analysis data with ID: {}", analysisId);
-
         // Finally delete the deviation itself
         deviationStorage.delete(deviationId);
+        deviationIndex.remove(deviationId);
+        analysisJobs.remove(deviationId);
         logger.info("Successfully deleted deviation with ID: {}", deviationId);
 
         return ResponseEntity.ok().build();
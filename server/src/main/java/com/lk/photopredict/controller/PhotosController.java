@@ -1,44 +1,86 @@
 package com.lk.photopredict.controller;
 
+import com.lk.photopredict.media.ImageVariants;
 import com.lk.photopredict.repository.DataStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
 
 @RestController
 @RequestMapping("/api/photos")
 public class PhotosController {
     private static final Logger logger = LoggerFactory.getLogger(PhotosController.class);
+    // Media are never changed under their ID
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable();
+    // Original served in place of a variant not generated yet, revalidated so the variant replaces it once it exists
+    private static final CacheControl REVALIDATED = CacheControl.noCache().cachePrivate();
 
     private final DataStore photosStorage;
+    private final ImageVariants imageVariants;
 
     @Autowired
-    public PhotosController(@Qualifier("image") DataStore photosStorage) {
+    public PhotosController(@Qualifier("image") DataStore photosStorage, ImageVariants imageVariants) {
         this.photosStorage = photosStorage;
+        this.imageVariants = imageVariants;
     }
 
+    /**
+     * @param size {@code thumb} or {@code medium} for a smaller variant, the original without it
+     */
     @GetMapping("/{photoId}")
-    public ResponseEntity<ByteArrayResource> getPhoto(@PathVariable String photoId) {
-        logger.info("Retrieving photo with ID: {}", photoId);
-        byte[] photoData = photosStorage.getBytes(photoId);
-        if (photoData == null) {
+    public ResponseEntity<Resource> getPhoto(@PathVariable String photoId,
+                                             @RequestParam(value = "size", required = false) String size,
+                                             WebRequest request) {
+        logger.info("Retrieving photo with ID: {}, size: {}", photoId, size);
+        String blobId = photoId;
+        DataStore.Metadata metadata = null;
+        CacheControl cacheControl = IMMUTABLE;
+        if (size != null) {
+            ImageVariants.Variant variant = ImageVariants.Variant.of(size)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown size: " + size));
+            if (ImageVariants.Variant.isVariant(photoId)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Photo " + photoId + " is a variant itself");
+            }
+            metadata = imageVariants.metadata(photoId, variant);
+            if (metadata != null) {
+                blobId = variant.id(photoId);
+            } else {
+                logger.warn("Variant {} of photo {} not available, serving the original", variant, photoId);
+                cacheControl = REVALIDATED;
+            }
+        }
+        if (metadata == null) {
+            metadata = photosStorage.metadata(photoId);
+        }
+        if (metadata == null) {
             logger.warn("Photo not found with ID: {}", photoId);
             return ResponseEntity.notFound().build();
         }
-
-        ByteArrayResource resource = new ByteArrayResource(photoData);
-        logger.info("Successfully retrieved photo with ID: {}", photoId);
+        // Answered from the metadata alone, also sets ETag and Last-Modified of the full response
+        if (request.checkNotModified(metadata.etag(), metadata.updated())) {
+            logger.debug("Photo with ID {} not modified", photoId);
+            return null;
+        }
+        // Streamed when written, ranges are answered with 206 Partial Content by Spring
+        Resource resource = photosStorage.resource(blobId, metadata);
+        logger.info("Streaming photo with ID: {}", photoId);
 
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + photoId + "\"")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + blobId + "\"")
                 .contentType(MediaType.IMAGE_JPEG)
-                .contentLength(photoData.length)
+                .cacheControl(cacheControl)
                 .body(resource);
     }
 }
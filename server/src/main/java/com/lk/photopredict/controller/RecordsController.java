@@ -1,51 +1,61 @@
 package com.lk.photopredict.controller;
 
-import com.lk.photopredict.analysis.RecordTranscript;
+import com.lk.photopredict.analysis.Transcriber;
 import com.lk.photopredict.repository.DataStore;
-import com.google.api.gax.core.CredentialsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.Duration;
 
 @RestController
 @RequestMapping("/api/records")
 public class RecordsController {
     private static final Logger logger = LoggerFactory.getLogger(RecordsController.class);
+    // Media are never changed under their ID
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable();
     private final DataStore recordingDataStore;
 
-    private final CredentialsProvider credentialsProvider;
+    private final Transcriber transcriber;
 
-    public RecordsController(@Qualifier("recording") DataStore recordingDataStore, CredentialsProvider credentialsProvider) {
+    public RecordsController(@Qualifier("recording") DataStore recordingDataStore, Transcriber transcriber) {
         this.recordingDataStore = recordingDataStore;
-        this.credentialsProvider = credentialsProvider;
+        this.transcriber = transcriber;
     }
 
     @GetMapping("/{recordId}")
-    public ResponseEntity<ByteArrayResource> getRecord(@PathVariable String recordId) {
+    public ResponseEntity<Resource> getRecord(@PathVariable String recordId, WebRequest request) {
         logger.info("Retrieving record with ID: {}", recordId);
-        byte[] recordData = recordingDataStore.getBytes(recordId);
-        if (recordData == null) {
+        DataStore.Metadata metadata = recordingDataStore.metadata(recordId);
+        if (metadata == null) {
             logger.warn("Record not found with ID: {}", recordId);
             return ResponseEntity.notFound().build();
         }
-
-        ByteArrayResource resource = new ByteArrayResource(recordData);
-        logger.info("Successfully retrieved record with ID: {}", recordId);
+        // Answered from the metadata alone, also sets ETag and Last-Modified of the full response
+        if (request.checkNotModified(metadata.etag(), metadata.updated())) {
+            logger.debug("Record with ID {} not modified", recordId);
+            return null;
+        }
+        // Streamed when written, ranges are answered with 206 Partial Content by Spring
+        Resource resource = recordingDataStore.resource(recordId, metadata);
+        logger.info("Streaming record with ID: {}", recordId);
 
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + recordId + "\"")
                 .contentType(MediaType.parseMediaType("audio/mpeg"))
-                .contentLength(recordData.length)
+                .cacheControl(IMMUTABLE)
                 .body(resource);
     }
 
     @GetMapping("/{recordId}/transcription")
     void transcription(@PathVariable("recordId") String recordId) {
-        new RecordTranscript(credentialsProvider).process(recordId);
+        transcriber.transcribe(recordId);
     }
 }
@@ -0,0 +1,77 @@
+package com.lk.photopredict.controller;
+
+import com.lk.photopredict.repository.DataStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers for responses completed asynchronously, where {@code WebRequest.checkNotModified} can't be used because
+ * the result is set outside of the request thread.
+ */
+final class Responses {
+
+    private Responses() {
+    }
+
+    /**
+     * Result set when the future completes. A timed out storage call is answered with 504 Gateway Timeout, one not
+     * accepted by the busy storage executor with 503 Service Unavailable.
+     */
+    static <T> DeferredResult<T> deferred(CompletableFuture<T> future) {
+        DeferredResult<T> result = new DeferredResult<>();
+        future.whenComplete((value, e) -> {
+            if (e == null) {
+                result.setResult(value);
+                return;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            result.setErrorResult(cause instanceof TimeoutException
+                    ? new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Storage did not answer in time", cause)
+                    : cause);
+        });
+        return result;
+    }
+
+    /**
+     * Same rules as {@code WebRequest.checkNotModified}: If-None-Match decides when present, If-Modified-Since otherwise.
+     */
+    static boolean isNotModified(HttpHeaders request, DataStore.Metadata metadata) {
+        if (!request.getIfNoneMatch().isEmpty()) {
+            return request.getIfNoneMatch().stream()
+                    .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                    .anyMatch(tag -> tag.equals("*") || tag.equals(metadata.etag()));
+        }
+        long ifModifiedSince = request.getIfModifiedSince();
+        // HTTP dates have whole seconds
+        return ifModifiedSince >= 0 && metadata.updated() >= 0 && metadata.updated() / 1000 * 1000 <= ifModifiedSince;
+    }
+
+    static <T> ResponseEntity<T> notModified(DataStore.Metadata metadata) {
+        return validators(ResponseEntity.status(HttpStatus.NOT_MODIFIED), metadata).build();
+    }
+
+    /**
+     * 200 OK with the validators of the metadata.
+     */
+    static ResponseEntity.BodyBuilder ok(DataStore.Metadata metadata) {
+        return validators(ResponseEntity.ok(), metadata);
+    }
+
+    /**
+     * ETag, and Last-Modified only when the update time is known.
+     */
+    private static ResponseEntity.BodyBuilder validators(ResponseEntity.BodyBuilder response, DataStore.Metadata metadata) {
+        response.eTag(metadata.etag());
+        if (metadata.updated() >= 0) {
+            response.lastModified(metadata.updated());
+        }
+        return response;
+    }
+}
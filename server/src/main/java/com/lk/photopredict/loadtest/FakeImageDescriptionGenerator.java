@@ -0,0 +1,34 @@
+package com.lk.photopredict.loadtest;
+
+import com.lk.photopredict.analysis.GeneratedText;
+import com.lk.photopredict.analysis.ImageDescriptionGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Image description without Vertex AI, answering after a simulated latency.
+ */
+@Component
+@Profile("loadtest")
+public class FakeImageDescriptionGenerator implements ImageDescriptionGenerator {
+
+    private final Latency latency;
+
+    public FakeImageDescriptionGenerator(
+            @Value("${loadtest.latency.image-description-ms:2500}") long medianMillis,
+            @Value("${loadtest.latency.sigma:0.4}") double sigma) {
+        this.latency = new Latency(Duration.ofMillis(medianMillis), sigma);
+    }
+
+    @Override
+    public GeneratedText describe(String imageId, String prompt) {
+        latency.await();
+        String description = "Photo " + imageId + " shows a wall socket above a kitchen counter with discoloured, heat damaged plastic. "
+                + "Recommendation: disconnect the circuit, replace the socket and inspect the wiring.";
+        // About four characters per token and a fixed cost of the photo, as for Gemini
+        return new GeneratedText(description, "fake", 258 + prompt.length() / 4, description.length() / 4);
+    }
+}
@@ -0,0 +1,44 @@
+package com.lk.photopredict.loadtest;
+
+import com.lk.photopredict.analysis.GeneratedText;
+import com.lk.photopredict.analysis.TextGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Solution generation without Vertex AI, answering after a simulated latency with a solution in the same markdown
+ * fence Gemini uses, so parsing is exercised as well.
+ */
+@Component
+@Profile("loadtest")
+public class FakeTextGenerator implements TextGenerator {
+
+    private static final String SOLUTION = """
+            ```json
+            {
+                "issueType": "Overheated socket",
+                "summary": "Kitchen socket shows heat damage from overload, the wiring behind it has to be checked.",
+                "priorityLevel": "High",
+                "repairEffortHours": "3",
+                "checkList": ["Disconnect the kitchen circuit", "Replace the damaged socket", "Inspect the wiring", "Check the earth connection"]
+            }
+            ```""";
+
+    private final Latency latency;
+
+    public FakeTextGenerator(
+            @Value("${loadtest.latency.text-generation-ms:3000}") long medianMillis,
+            @Value("${loadtest.latency.sigma:0.4}") double sigma) {
+        this.latency = new Latency(Duration.ofMillis(medianMillis), sigma);
+    }
+
+    @Override
+    public GeneratedText generate(String prompt) {
+        latency.await();
+        // About four characters per token, as for Gemini on English text
+        return new GeneratedText(SOLUTION, "fake", prompt.length() / 4, SOLUTION.length() / 4);
+    }
+}
@@ -0,0 +1,30 @@
+package com.lk.photopredict.loadtest;
+
+import com.lk.photopredict.analysis.Transcriber;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Transcription without Speech-to-Text, answering after a simulated latency.
+ */
+@Component
+@Profile("loadtest")
+public class FakeTranscriber implements Transcriber {
+
+    private final Latency latency;
+
+    public FakeTranscriber(
+            @Value("${loadtest.latency.transcription-ms:1500}") long medianMillis,
+            @Value("${loadtest.latency.sigma:0.4}") double sigma) {
+        this.latency = new Latency(Duration.ofMillis(medianMillis), sigma);
+    }
+
+    @Override
+    public String transcribe(String id) {
+        latency.await();
+        return "The socket next to the sink has burn marks and the breaker trips when the kettle is on. Recording " + id + ".";
+    }
+}
@@ -0,0 +1,28 @@
+package com.lk.photopredict.loadtest;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Simulated latency of a remote call: a median with log-normal spread, so there is a long tail like with real
+ * model calls.
+ *
+ * @param median of the simulated calls
+ * @param sigma spread of the log-normal distribution, 0 for always the median
+ */
+record Latency(Duration median, double sigma) {
+
+    /**
+     * Blocks the calling thread like a remote call would.
+     */
+    void await() {
+        double factor = Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+        long nanos = (long) (median.toNanos() * factor);
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during simulated call", e);
+        }
+    }
+}
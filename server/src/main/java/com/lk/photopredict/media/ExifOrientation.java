@@ -0,0 +1,125 @@
+package com.lk.photopredict.media;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Orientation of a JPEG photo from the EXIF tag in its APP1 segment. Phones store portrait photos in landscape and
+ * set the tag, {@code ImageIO} ignores it.
+ */
+final class ExifOrientation {
+
+    static final int NORMAL = 1;
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final String APP1_MARKER = "225";
+    private static final int ORIENTATION_TAG = 0x0112;
+    // "Exif" and two zero bytes before the TIFF header
+    private static final int EXIF_HEADER_LENGTH = 6;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * @param metadata of the image as read by the JPEG reader of the JDK, null for other images
+     * @return orientation from 1 to 8, {@link #NORMAL} when unknown
+     */
+    static int of(IIOMetadata metadata) {
+        if (metadata == null || !JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+            return NORMAL;
+        }
+        Node markers = child(metadata.getAsTree(JPEG_METADATA_FORMAT), "markerSequence");
+        for (Node marker = markers == null ? null : markers.getFirstChild(); marker != null; marker = marker.getNextSibling()) {
+            if (marker instanceof IIOMetadataNode node && "unknown".equals(node.getNodeName())
+                    && APP1_MARKER.equals(node.getAttribute("MarkerTag"))
+                    && node.getUserObject() instanceof byte[] segment) {
+                int orientation = of(segment);
+                if (orientation != NORMAL) {
+                    return orientation;
+                }
+            }
+        }
+        return NORMAL;
+    }
+
+    /**
+     * @param segment content of an APP1 segment, EXIF or another kind like XMP
+     * @return orientation from 1 to 8, {@link #NORMAL} when unknown
+     */
+    static int of(byte[] segment) {
+        if (segment.length < EXIF_HEADER_LENGTH + 8
+                || !"Exif".equals(new String(segment, 0, 4, StandardCharsets.US_ASCII))) {
+            return NORMAL;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, EXIF_HEADER_LENGTH, segment.length - EXIF_HEADER_LENGTH).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        // First image file directory, entries of 12 bytes after their count
+        int directory = tiff.getInt(4);
+        if (directory < 8 || directory + 2 > tiff.limit()) {
+            return NORMAL;
+        }
+        int entries = tiff.getShort(directory) & 0xffff;
+        for (int i = 0; i < entries; i++) {
+            int entry = directory + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                break;
+            }
+            if ((tiff.getShort(entry) & 0xffff) == ORIENTATION_TAG) {
+                // A single short, at the start of the value field
+                int orientation = tiff.getShort(entry + 8) & 0xffff;
+                return orientation >= 1 && orientation <= 8 ? orientation : NORMAL;
+            }
+        }
+        return NORMAL;
+    }
+
+    /**
+     * The image as it is meant to be viewed, rotated and mirrored as the orientation says. Without alpha, JPEG has
+     * none.
+     */
+    static BufferedImage apply(BufferedImage image, int orientation) {
+        if (orientation == NORMAL) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, width);
+            default -> throw new IllegalArgumentException("Unknown orientation " + orientation);
+        };
+        // From 5 on width and height swap
+        boolean swapped = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(swapped ? height : width, swapped ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = oriented.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return oriented;
+    }
+
+    private static Node child(Node parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (name.equals(child.getNodeName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+}
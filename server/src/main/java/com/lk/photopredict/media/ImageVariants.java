@@ -0,0 +1,278 @@
+package com.lk.photopredict.media;
+
+import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smaller renditions of photos, stored next to the original in the image bucket under the ID of the original with
+ * the suffix of the variant. Variants are generated in the background after a photo is saved, and on first request
+ * if that did not happen. Resizing is CPU bound, so it runs on a small pool of platform threads.
+ */
+@Component
+public class ImageVariants {
+    private static final Logger logger = LoggerFactory.getLogger(ImageVariants.class);
+
+    private static final float JPEG_QUALITY = 0.8f;
+
+    private final DataStore photosStorage;
+    private final ThreadPoolExecutor executor;
+    // Concurrent first requests of the same photo generate its variants once
+    private final SingleFlight<Boolean> generations;
+
+    public ImageVariants(
+            @Qualifier("image") DataStore photosStorage,
+            MeterRegistry meterRegistry,
+            @Value("${image.variants.workers:2}") int workers,
+            @Value("${image.variants.queue-capacity:100}") int queueCapacity) {
+        this.photosStorage = photosStorage;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), Thread.ofPlatform().name("image-variants-", 0).factory());
+        new ExecutorServiceMetrics(executor, "image.variants", Tags.empty()).bindTo(meterRegistry);
+        this.generations = new SingleFlight<>(Counter.builder("image.variants.coalesced")
+                .description("Requests of a missing variant answered by a generation already running")
+                .register(meterRegistry), generated -> generated);
+    }
+
+    /**
+     * Generates all variants of the photos in the background. Photos not accepted by a full queue get their
+     * variants on first request.
+     */
+    public void schedule(Collection<String> photoIds) {
+        for (String photoId : photoIds) {
+            if (Variant.isVariant(photoId)) {
+                logger.warn("Photo {} is a variant itself, no variants generated", photoId);
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        generate(photoId);
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to generate variants of photo {}", photoId, e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("Image variant queue is full, variants of photo {} are generated on first request", photoId);
+            }
+        }
+    }
+
+    /**
+     * Metadata of the variant, generated now if it does not exist yet.
+     *
+     * @return metadata, null if there is no such photo or the variant could not be generated now
+     * @throws IllegalArgumentException when the photo is a variant itself
+     */
+    public DataStore.Metadata metadata(String photoId, Variant variant) {
+        if (Variant.isVariant(photoId)) {
+            throw new IllegalArgumentException("Photo " + photoId + " is a variant itself");
+        }
+        String variantId = variant.id(photoId);
+        DataStore.Metadata metadata = photosStorage.metadata(variantId);
+        if (metadata != null) {
+            return metadata;
+        }
+        logger.info("Variant {} of photo {} is missing, generating it", variant, photoId);
+        try {
+            generations.run(photoId, () -> {
+                CompletableFuture.runAsync(() -> generate(photoId), executor).join();
+                return Boolean.TRUE;
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Image variant queue is full, variant {} of photo {} not generated", variant, photoId);
+            return null;
+        } catch (CompletionException e) {
+            logger.error("Failed to generate variant {} of photo {}", variant, photoId, e.getCause());
+            return null;
+        }
+        return photosStorage.metadata(variantId);
+    }
+
+    private void generate(String photoId) {
+        byte[] original = photosStorage.getBytes(photoId);
+        if (original == null) {
+            logger.warn("Photo {} not found, no variants generated", photoId);
+            return;
+        }
+        BufferedImage image;
+        try {
+            image = read(original);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read photo " + photoId, e);
+        }
+        if (image == null) {
+            logger.warn("Photo {} is not a readable image, no variants generated", photoId);
+            return;
+        }
+        for (Variant variant : Variant.values()) {
+            byte[] resized = encode(resize(image, variant.maxSide()));
+            photosStorage.save(new ByteArrayInputStream(resized), variant.id(photoId));
+            logger.debug("Saved variant {} of photo {} with {} bytes", variant, photoId, resized.length);
+        }
+    }
+
+    /**
+     * Decoded together with its metadata, turned upright by its EXIF orientation.
+     *
+     * @return null if no reader knows the format
+     */
+    private static BufferedImage read(byte[] photo) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(photo))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+                BufferedImage image = reader.read(0);
+                return ExifOrientation.apply(image, ExifOrientation.of(reader.getImageMetadata(0)));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scaled so the longer side is at most {@code maxSide}, never enlarged. Halved in steps while more than twice
+     * as large, a single bilinear step from a far larger image skips most of its pixels and aliases.
+     */
+    private static BufferedImage resize(BufferedImage image, int maxSide) {
+        double scale = Math.min(1.0, (double) maxSide / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage current = image;
+        while (current.getWidth() >= 2 * width && current.getHeight() >= 2 * height) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return draw(current, width, height);
+    }
+
+    /**
+     * Bilinear, without alpha, JPEG has none.
+     */
+    private static BufferedImage draw(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    private static byte[] encode(BufferedImage image) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode image variant", e);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Missing variants are generated on first request
+        executor.shutdownNow();
+    }
+
+    public enum Variant {
+        THUMB("thumb", 200),
+        MEDIUM("medium", 800);
+
+        private final String parameter;
+        private final int maxSide;
+
+        Variant(String parameter, int maxSide) {
+            this.parameter = parameter;
+            this.maxSide = maxSide;
+        }
+
+        /**
+         * @param parameter value of the {@code size} request parameter
+         */
+        public static Optional<Variant> of(String parameter) {
+            return Arrays.stream(values()).filter(variant -> variant.parameter.equals(parameter)).findFirst();
+        }
+
+        public String id(String photoId) {
+            return photoId + "-" + parameter;
+        }
+
+        public int maxSide() {
+            return maxSide;
+        }
+
+        /**
+         * True for IDs of variants, which have no variants of their own.
+         */
+        public static boolean isVariant(String id) {
+            return Arrays.stream(values()).anyMatch(variant -> id.endsWith("-" + variant.parameter));
+        }
+
+        /**
+         * @return ID of the photo the variant was generated from, the ID itself if it is no variant
+         */
+        public static String photoId(String id) {
+            for (Variant variant : values()) {
+                if (id.endsWith("-" + variant.parameter)) {
+                    return id.substring(0, id.length() - variant.parameter.length() - 1);
+                }
+            }
+            return id;
+        }
+
+        /**
+         * IDs of all variants of the photo.
+         */
+        public static List<String> ids(String photoId) {
+            return Arrays.stream(values()).map(variant -> variant.id(photoId)).toList();
+        }
+    }
+}
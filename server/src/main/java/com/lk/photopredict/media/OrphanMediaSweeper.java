@@ -0,0 +1,116 @@
+package com.lk.photopredict.media;
+
+import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.DeviationIndex;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Deletes content addressed photos and recordings no deviation refers to. Such media may be shared by several
+ * deviations, so deleting a deviation or rolling back a failed upload leaves them in place instead of racing a
+ * deviation created at the same time with the same content.
+ * A blob is deleted only when it is unreferenced in two sweeps in a row at the same generation, so media uploaded for
+ * a deviation that is not indexed yet are not taken as long as the deviation is indexed within a sweep interval. A
+ * duplicate of an unreferenced blob gets a new generation when it is saved, the delete is conditional on the listed
+ * generation and leaves it. Data stores which are not content addressed are not swept, their media are deleted with
+ * their deviation.
+ */
+@Component
+public class OrphanMediaSweeper {
+    private static final Logger logger = LoggerFactory.getLogger(OrphanMediaSweeper.class);
+
+    private final DeviationIndex deviationIndex;
+    // Swept stores and the ID of the medium a blob belongs to, variants belong to their photo
+    private final Map<DataStore, UnaryOperator<String>> stores = new HashMap<>();
+    // Unreferenced in the last sweep with their generation, deleted when still unreferenced at that generation in
+    // the next one
+    private final Map<DataStore, Map<String, Long>> candidates = new HashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    public OrphanMediaSweeper(
+            @Qualifier("image") DataStore photosStorage,
+            @Qualifier("recording") DataStore recordingStorage,
+            DeviationIndex deviationIndex,
+            @Value("${storage.orphan-sweep.interval-minutes:60}") long intervalMinutes) {
+        this.deviationIndex = deviationIndex;
+        if (photosStorage.isContentAddressed()) {
+            stores.put(photosStorage, ImageVariants.Variant::photoId);
+        }
+        if (recordingStorage.isContentAddressed()) {
+            stores.put(recordingStorage, UnaryOperator.identity());
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("orphan-media-sweep-", 0).factory());
+        if (!stores.isEmpty()) {
+            sweeper.scheduleWithFixedDelay(this::sweep, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+            logger.info("Sweeping unreferenced content addressed media every {} minutes", intervalMinutes);
+        }
+    }
+
+    void sweep() {
+        try {
+            for (Map.Entry<DataStore, UnaryOperator<String>> store : stores.entrySet()) {
+                sweep(store.getKey(), store.getValue());
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to sweep unreferenced media", e);
+        }
+    }
+
+    private void sweep(DataStore store, UnaryOperator<String> mediumId) {
+        Map<String, DataStore.Metadata> blobs = store.list(null);
+        // Read after listing, a listed blob of an indexed deviation is referenced
+        Set<String> referenced = deviationIndex.referencedMedia();
+        Map<String, Long> unreferenced = new HashMap<>();
+        blobs.forEach((id, metadata) -> {
+            if (!referenced.contains(mediumId.apply(id))) {
+                unreferenced.put(id, metadata.generation());
+            }
+        });
+        Map<String, Long> previous = candidates.getOrDefault(store, Map.of());
+        List<String> orphans = new ArrayList<>();
+        unreferenced.forEach((id, generation) -> {
+            if (generation.equals(previous.get(id))) {
+                orphans.add(id);
+            }
+        });
+        candidates.put(store, unreferenced);
+        if (orphans.isEmpty()) {
+            return;
+        }
+        int deleted = 0;
+        int failed = 0;
+        for (String id : orphans) {
+            try {
+                // Only at the generation of the last sweep, a duplicate saved since got a new one and stays
+                if (store.deleteIfGeneration(id, unreferenced.get(id))) {
+                    deleted++;
+                }
+                unreferenced.remove(id);
+            } catch (RuntimeException e) {
+                // Tried again by the next sweep
+                logger.error("Failed to delete unreferenced medium {}", id, e);
+                failed++;
+            }
+        }
+        logger.info("Deleted {} of {} unreferenced media, {} failed", deleted, orphans.size(), failed);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,50 @@
+package com.lk.photopredict.payload;
+
+import java.util.List;
+
+/**
+ * Progress of the background analysis of a deviation. Times are epoch milliseconds, null until reached.
+ *
+ * @param deviationId analyzed deviation
+ * @param state of the analysis
+ * @param version increased on every change, passed back to wait for the next change
+ * @param queuedAt when the analysis was submitted
+ * @param startedAt when a worker started it
+ * @param finishedAt when it was done or failed
+ * @param stages progress of the stages with work to do, in order
+ * @param error message of the failure, null unless failed
+ */
+public record AnalysisStatus(
+        String deviationId,
+        State state,
+        long version,
+        Long queuedAt,
+        Long startedAt,
+        Long finishedAt,
+        List<Stage> stages,
+        String error) {
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED;
+
+        public boolean isFinished() {
+            return this == DONE || this == FAILED;
+        }
+    }
+
+    /**
+     * @param stage name of the stage
+     * @param total calls of the stage in this analysis
+     * @param done calls finished successfully
+     * @param failed calls which failed
+     */
+    public record Stage(String stage, int total, int done, int failed) {
+    }
+
+    /**
+     * Status of an analysis finished before it was tracked, for example before a restart.
+     */
+    public static AnalysisStatus done(String deviationId) {
+        return new AnalysisStatus(deviationId, State.DONE, 0, null, null, null, List.of(), null);
+    }
+}
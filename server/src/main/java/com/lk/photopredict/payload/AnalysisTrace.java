@@ -0,0 +1,56 @@
+package com.lk.photopredict.payload;
+
+import java.util.List;
+
+/**
+ * Timeline of one analysis of a deviation, saved next to its analysis for finding slow and expensive steps.
+ * Times are epoch milliseconds, sizes are bytes and -1 stands for unknown.
+ *
+ * @param deviationId analyzed deviation
+ * @param startedAt start of the analysis
+ * @param durationMillis of the whole analysis
+ * @param outcome success or failure
+ * @param error message of the failure, null on success
+ * @param steps in the order they started
+ */
+public record AnalysisTrace(
+        String deviationId,
+        long startedAt,
+        long durationMillis,
+        String outcome,
+        String error,
+        List<Step> steps) {
+
+    public static final String ID_SUFFIX = "-trace";
+
+    /**
+     * One call of a stage.
+     *
+     * @param stage name of the stage
+     * @param item recording or photo the step was for, null for steps of the whole deviation
+     * @param startedAt start of the step
+     * @param durationMillis of the step
+     * @param outcome success or failure
+     * @param cached whether the result came from the result cache instead of the model
+     * @param model which produced the result, null when no model was involved
+     * @param bytesIn size of the input, the media or the prompt
+     * @param bytesOut size of the output
+     * @param promptTokens tokens of the prompt billed by the model
+     * @param outputTokens tokens of the answer billed by the model
+     * @param error message of the failure, null on success
+     */
+    public record Step(
+            String stage,
+            String item,
+            long startedAt,
+            long durationMillis,
+            String outcome,
+            boolean cached,
+            String model,
+            long bytesIn,
+            long bytesOut,
+            int promptTokens,
+            int outputTokens,
+            String error) {
+    }
+}
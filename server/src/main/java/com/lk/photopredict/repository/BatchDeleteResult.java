@@ -0,0 +1,23 @@
+package com.lk.photopredict.repository;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of deleting several blobs at once. Blobs are keyed by the root of their bucket and their ID, as passed to
+ * {@link StorageBackend#deleteAll}, so the same ID in several buckets of one batch is told apart.
+ *
+ * @param deleted deleted blobs
+ * @param missing blobs which did not exist, for example deleted by an earlier attempt
+ * @param failed blobs which could not be deleted, with the cause
+ */
+public record BatchDeleteResult(Set<Map.Entry<String, String>> deleted, Set<Map.Entry<String, String>> missing,
+                                Map<Map.Entry<String, String>, RuntimeException> failed) {
+
+    /**
+     * True when none of the blobs is left.
+     */
+    public boolean isComplete() {
+        return failed.isEmpty();
+    }
+}
@@ -0,0 +1,18 @@
+package com.lk.photopredict.repository;
+
+/**
+ * Receives results of a batch read as they arrive, called from the reading threads.
+ *
+ * @param <T> type of content
+ */
+@FunctionalInterface
+public interface BatchReadListener<T> {
+
+    void onFound(String id, T content);
+
+    default void onMissing(String id) {
+    }
+
+    default void onFailure(String id, RuntimeException e) {
+    }
+}
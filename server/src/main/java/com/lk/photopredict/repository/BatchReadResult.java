@@ -0,0 +1,19 @@
+package com.lk.photopredict.repository;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of reading several blobs at once.
+ *
+ * @param found content keyed by ID
+ * @param missing IDs without blob
+ * @param failed IDs which could not be read, with the cause
+ * @param <T> type of content
+ */
+public record BatchReadResult<T>(Map<String, T> found, Set<String> missing, Map<String, RuntimeException> failed) {
+
+    public boolean isComplete() {
+        return missing.isEmpty() && failed.isEmpty();
+    }
+}
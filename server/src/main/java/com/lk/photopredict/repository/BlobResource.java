@@ -0,0 +1,55 @@
+package com.lk.photopredict.repository;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Content of one blob, opened anew for every read. Spring writes it to the response through a small buffer and
+ * answers range requests with it, skipping to the start of a range instead of reading the skipped bytes.
+ */
+class BlobResource extends AbstractResource {
+
+    @FunctionalInterface
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private final String description;
+    private final String filename;
+    private final long size;
+    private final Opener opener;
+
+    BlobResource(Bucket bucket, String id, long size, Opener opener) {
+        this.description = "Blob [" + bucket.root() + "/" + id + "]";
+        this.filename = id;
+        this.size = size;
+        this.opener = opener;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return opener.open();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+}
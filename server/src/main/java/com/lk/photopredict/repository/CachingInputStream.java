@@ -0,0 +1,73 @@
+package com.lk.photopredict.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps a copy of the blob streamed through it and puts it into the cache once the whole blob was read from its
+ * start. Skipping, for example to the start of a range, or a shorter read drops the copy, the stream itself is never
+ * held back.
+ */
+class CachingInputStream extends FilterInputStream {
+    private final MediaCache cache;
+    private final String id;
+    private final long size;
+    // Null once dropped or cached
+    private ByteArrayOutputStream copy;
+
+    /**
+     * @param size of the blob from its metadata, within the entry size of the cache
+     */
+    CachingInputStream(InputStream in, MediaCache cache, String id, long size) {
+        super(in);
+        this.cache = cache;
+        this.id = id;
+        this.size = size;
+        this.copy = new ByteArrayOutputStream((int) size);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read >= 0 && copy != null) {
+            copy.write(read);
+        }
+        completed(read < 0);
+        return read;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int read = super.read(bytes, offset, length);
+        if (read > 0 && copy != null) {
+            copy.write(bytes, offset, read);
+        }
+        completed(read < 0);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        copy = null;
+        return super.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void completed(boolean end) {
+        if (copy == null) {
+            return;
+        }
+        if (copy.size() == size) {
+            cache.put(id, copy.toByteArray());
+            copy = null;
+        } else if (end || copy.size() > size) {
+            copy = null;
+        }
+    }
+}
@@ -1,39 +1,155 @@
 package com.lk.photopredict.repository;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import com.google.api.gax.paging.Page;
-import com.google.cloud.storage.*;
+import com.google.cloud.storage.Storage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
 
 public class DataStore {
     private static final Logger logger = LoggerFactory.getLogger(DataStore.class);
 
-    private final com.google.cloud.storage.Storage storage;
+    // Blob metadata with the hex SHA-256 of the content, set on content addressed blobs
+    public static final String SHA256_METADATA = "sha256";
+    // Streamed uploads of content addressed data stores land here until their hash is known
+    private static final String UPLOAD_PREFIX = "_upload/";
+
+    private final StorageBackend backend;
     private final Bucket bucket;
 
+    // Batch reads
+    private final Executor executor;
+    private final int readParallelism;
+
+    // Contents returned by getBytes, null when not cached
+    private final MediaCache cache;
+
+    // IDs of saved data without an explicit ID are the SHA-256 of the content
+    private final boolean contentAddressed;
+
+    // Async calls
+    private final Executor ioExecutor;
+    private final Duration timeout;
+
+    // Concurrent reads of the same blob share one storage call
+    private final SingleFlight<String> getFlight;
+    private final SingleFlight<byte[]> bytesFlight;
+    private final SingleFlight<Metadata> metadataFlight;
+
+    // Time of every operation by name and outcome, and size of saved content
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final DistributionSummary savedBytes;
+
     public DataStore(Storage storage, Bucket bucket) {
-        this.storage = storage;
-        this.bucket = bucket;
+        this(builder(storage, bucket));
+    }
+
+    private DataStore(Builder builder) {
+        this.backend = builder.backend;
+        this.bucket = builder.bucket;
+        this.executor = builder.executor;
+        this.readParallelism = builder.readParallelism;
+        this.cache = builder.cache;
+        this.contentAddressed = builder.contentAddressed;
+        this.ioExecutor = builder.ioExecutor;
+        this.timeout = builder.timeout;
+        this.getFlight = new SingleFlight<>(coalesced(builder, "get"), content -> content);
+        this.bytesFlight = new SingleFlight<>(coalesced(builder, "getBytes"), byte[]::clone);
+        this.metadataFlight = new SingleFlight<>(coalesced(builder, "metadata"), metadata -> metadata);
+        this.meterRegistry = builder.meterRegistry;
+        this.savedBytes = DistributionSummary.builder("datastore.saved.bytes")
+                .description("Size of content saved, for uploads after decoding")
+                .tag("bucket", bucket.root())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private static Counter coalesced(Builder builder, String operation) {
+        return Counter.builder("datastore.reads.coalesced")
+                .description("Reads answered by a storage call already running for the same blob")
+                .tag("bucket", builder.bucket.root())
+                .tag("operation", operation)
+                .register(builder.meterRegistry);
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return timers.computeIfAbsent(operation + "/" + outcome, key -> Timer.builder("datastore.operations")
+                .description("Time of data store operations, including waiting for a coalesced read")
+                .tag("bucket", bucket.root())
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+
+    private <T> T timed(String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            outcome = "failure";
+            throw e;
+        } finally {
+            timer(operation, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static Builder builder(Storage storage, Bucket bucket) {
+        return builder(new GcsBackend(storage), bucket);
+    }
+
+    public static Builder builder(StorageBackend backend, Bucket bucket) {
+        return new Builder(backend, bucket);
+    }
+
+    /**
+     * True when saved data without an explicit ID is stored under the hash of its content, so the same blob may
+     * belong to several deviations.
+     */
+    public boolean isContentAddressed() {
+        return contentAddressed;
     }
 
     public String save(InputStream data) {
-        return this.save(data, makeId());
+        return contentAddressed ? saveContentAddressed(data) : this.save(data, makeId());
     }
 
     public String save(InputStream data, String fileId) {
+        return timed("save", () -> write(data, fileId));
+    }
+
+    private String write(InputStream data, String fileId) {
         try {
             logger.debug("Saving data to bucket {} with ID {}", bucket.root(), fileId);
-            BlobId blobId = BlobId.of(bucket.root(), fileId);
-            BlobInfo blobInfo = BlobInfo.newBuilder(blobId)
-                    .setContentType(bucket.contentType())
-                    .build();
-            // Upload the input stream to Google Cloud Storage
-            storage.createFrom(blobInfo, data);
+            CountingInputStream counting = new CountingInputStream(data);
+            backend.write(bucket.root(), fileId, bucket.contentType(), counting);
+            savedBytes.record(counting.count());
+            invalidate(fileId);
             logger.debug("Successfully saved data to bucket {} with ID {}", bucket.root(), fileId);
             return fileId;
         } catch (Exception e) {
@@ -43,7 +159,7 @@ public class DataStore {
     }
 
     public String save(String data) {
-        return this.save(data, makeId());
+        return contentAddressed ? saveContentAddressed(data.getBytes()) : this.save(data, makeId());
     }
 
     public String save(String data, String id) {
@@ -51,20 +167,170 @@ public class DataStore {
         return this.save(new ByteArrayInputStream(decode), id);
     }
 
+    // Content addressed
+
+    /**
+     * Saves the content under its SHA-256, the hash is known up front.
+     *
+     * @return ID of the saved content, the ID of the existing blob for a duplicate
+     */
+    private String saveContentAddressed(byte[] data) {
+        return timed("save", () -> writeContentAddressed(data));
+    }
+
+    private String writeContentAddressed(byte[] data) {
+        savedBytes.record(data.length);
+        String id = HexFormat.of().formatHex(sha256().digest(data));
+        try {
+            // Retried when a duplicate is deleted before it is reused
+            while (backend.compareAndWrite(bucket.root(), id, bucket.contentType(), Map.of(SHA256_METADATA, id), data, 0) < 0) {
+                if (reuse(id)) {
+                    return id;
+                }
+            }
+            logger.debug("Saved content to bucket {} with ID {}", bucket.root(), id);
+        } catch (RuntimeException e) {
+            logger.error("Failed to save data to bucket {} with ID {}", bucket.root(), id, e);
+            throw e;
+        }
+        return id;
+    }
+
+    /**
+     * Streams the content into a temporary blob while hashing it, then copies it under its SHA-256 inside the
+     * storage, unless a blob with the same content already exists.
+     *
+     * @return ID of the saved content, the ID of the existing blob for a duplicate
+     */
+    private String saveContentAddressed(InputStream data) {
+        return timed("save", () -> writeContentAddressed(data));
+    }
+
+    private String writeContentAddressed(InputStream data) {
+        String uploadId = UPLOAD_PREFIX + makeId();
+        MessageDigest digest = sha256();
+        try {
+            CountingInputStream counting = new CountingInputStream(data);
+            try (DigestInputStream hashing = new DigestInputStream(counting, digest)) {
+                backend.write(bucket.root(), uploadId, bucket.contentType(), hashing);
+            }
+            savedBytes.record(counting.count());
+            String id = HexFormat.of().formatHex(digest.digest());
+            // Retried when the same content is saved concurrently or a duplicate is deleted before it is reused
+            while (!reuse(id)) {
+                if (backend.copyIfAbsent(bucket.root(), uploadId, id, bucket.contentType(), Map.of(SHA256_METADATA, id))) {
+                    logger.debug("Saved content to bucket {} with ID {}", bucket.root(), id);
+                    break;
+                }
+            }
+            return id;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to save content addressed data to bucket {}", bucket.root(), e);
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                backend.delete(bucket.root(), uploadId);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to delete upload {} from bucket {}", uploadId, bucket.root(), e);
+            }
+        }
+    }
+
+    /**
+     * Gives an existing blob with the same content a new generation, so a sweep that found it unreferenced before
+     * and deletes it conditionally on that generation leaves it to the deviation about to refer to it.
+     *
+     * @return false if there is no such blob
+     */
+    private boolean reuse(String id) {
+        if (!backend.touch(bucket.root(), id)) {
+            return false;
+        }
+        logger.info("Duplicate content in bucket {}, reusing ID {}", bucket.root(), id);
+        return true;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Saves the data only if the blob is still at the expected generation.
+     *
+     * @param expectedGeneration generation read before, 0 if the blob must not exist yet
+     * @return generation of the saved blob, empty if the blob was changed in the meantime
+     */
+    public OptionalLong compareAndSave(String data, String id, long expectedGeneration) {
+        return timed("compareAndSave", () -> writeIfGeneration(data, id, expectedGeneration));
+    }
+
+    private OptionalLong writeIfGeneration(String data, String id, long expectedGeneration) {
+        logger.debug("Saving data to bucket {} with ID {} at generation {}", bucket.root(), id, expectedGeneration);
+        long generation;
+        try {
+            generation = backend.compareAndWrite(bucket.root(), id, bucket.contentType(), Map.of(), data.getBytes(), expectedGeneration);
+        } catch (RuntimeException e) {
+            logger.error("Failed to save data to bucket {} with ID {}", bucket.root(), id, e);
+            throw e;
+        }
+        if (generation < 0) {
+            logger.debug("Blob in bucket {} with ID {} is no longer at generation {}", bucket.root(), id, expectedGeneration);
+            return OptionalLong.empty();
+        }
+        invalidate(id);
+        return OptionalLong.of(generation);
+    }
+
+    /**
+     * Appends the data only if the blob is still at the expected generation. Only the appended data is sent, the
+     * content saved before stays in the storage.
+     *
+     * @return generation of the longer blob, empty if the blob was changed or deleted in the meantime
+     */
+    public OptionalLong compareAndAppend(String data, String id, long expectedGeneration) {
+        return timed("compareAndAppend", () -> {
+            logger.debug("Appending data to bucket {} with ID {} at generation {}", bucket.root(), id, expectedGeneration);
+            long generation;
+            try {
+                generation = backend.compareAndAppend(bucket.root(), id, bucket.contentType(), data.getBytes(),
+                        expectedGeneration);
+            } catch (RuntimeException e) {
+                logger.error("Failed to append data to bucket {} with ID {}", bucket.root(), id, e);
+                throw e;
+            }
+            if (generation < 0) {
+                logger.debug("Blob in bucket {} with ID {} is no longer at generation {}", bucket.root(), id, expectedGeneration);
+                return OptionalLong.empty();
+            }
+            invalidate(id);
+            return OptionalLong.of(generation);
+        });
+    }
+
     public List<String> save(Collection<String> data) {
         return data.stream().map(this::save).collect(Collectors.toList());
     }
 
     public List<String> ids() {
         logger.debug("Listing all IDs in bucket {}", bucket.root());
-        List<String> ids = new ArrayList<>();
-        Page<Blob> list = storage.list(bucket.root());
-        Iterable<Blob> values = list.getValues();
-        values.forEach(blob -> ids.add(blob.getName()));
+        List<String> ids = new ArrayList<>(timed("list", () -> backend.list(bucket.root(), null)).keySet());
         logger.debug("Found {} IDs in bucket {}", ids.size(), bucket.root());
         return ids;
     }
 
+    /**
+     * Metadata of all blobs with IDs starting with the prefix, in order of IDs.
+     */
+    public Map<String, Metadata> list(String prefix) {
+        logger.debug("Listing blobs in bucket {} with prefix {}", bucket.root(), prefix);
+        return timed("list", () -> backend.list(bucket.root(), prefix));
+    }
+
     // Decode
 
     public List<String> decodeAndSaveAll(Collection<String> data) {
@@ -72,7 +338,7 @@ public class DataStore {
     }
 
     public String decodeAndSave(String data) {
-        return this.decodeAndSave(data, makeId());
+        return contentAddressed ? saveContentAddressed(Base64.getDecoder().decode(data)) : this.decodeAndSave(data, makeId());
     }
     public String decodeAndSave(String data, String id) {
         byte[] decode = Base64.getDecoder().decode(data);
@@ -80,14 +346,17 @@ public class DataStore {
     }
 
     public String get(String id) {
+        return timed("get", () -> getFlight.run(id, () -> read(id)));
+    }
+
+    private String read(String id) {
         logger.debug("Getting content from bucket {} with ID {}", bucket.root(), id);
-        Blob blob = storage.get(bucket.root(), id);
-        if (blob == null) {
+        byte[] content = backend.read(bucket.root(), id);
+        if (content == null) {
             logger.warn("No blob found in bucket {} with ID {}", bucket.root(), id);
             return null;
         }
         try {
-            byte[] content = blob.getContent();
             logger.debug("Successfully retrieved content from bucket {} with ID {}", bucket.root(), id);
             return new String(content);
         } catch (Exception e) {
@@ -96,16 +365,119 @@ public class DataStore {
         }
     }
 
+    /**
+     * Content together with the generation it was read at, null if there is no such blob.
+     */
+    public Versioned getVersioned(String id) {
+        return timed("getVersioned", () -> {
+            Validated validated = readValidated(id);
+            return validated == null ? null : new Versioned(validated.content(), validated.metadata().generation());
+        });
+    }
+
+    /**
+     * Content together with the metadata of the generation it was read at, null if there is no such blob. Validators
+     * of a response built from this metadata always match its content.
+     */
+    public Validated getValidated(String id) {
+        return timed("getValidated", () -> readValidated(id));
+    }
+
+    private Validated readValidated(String id) {
+        logger.debug("Getting versioned content from bucket {} with ID {}", bucket.root(), id);
+        Metadata metadata = backend.metadata(bucket.root(), id);
+        if (metadata == null) {
+            return null;
+        }
+        try {
+            byte[] content = backend.read(bucket.root(), id, metadata.generation());
+            if (content == null) {
+                // Replaced or deleted since the metadata was read
+                return readValidated(id);
+            }
+            return new Validated(new String(content), metadata);
+        } catch (Exception e) {
+            logger.error("Failed to get content from bucket {} with ID {}", bucket.root(), id, e);
+            throw new RuntimeException("Failed to get content from blob", e);
+        }
+    }
+
+    /**
+     * Content from the offset on, together with the metadata of the generation it was read at, null if there is no
+     * such blob. For blobs that are only appended to, reads what was appended since the size read before. The content
+     * is empty if the blob is not longer than the offset.
+     */
+    public Validated getTail(String id, long offset) {
+        return timed("getTail", () -> readTail(id, offset));
+    }
+
+    private Validated readTail(String id, long offset) {
+        logger.debug("Getting content from bucket {} with ID {} from offset {}", bucket.root(), id, offset);
+        Metadata metadata = backend.metadata(bucket.root(), id);
+        if (metadata == null) {
+            return null;
+        }
+        if (metadata.size() <= offset) {
+            return new Validated("", metadata);
+        }
+        try (InputStream in = backend.open(bucket.root(), id, metadata.generation(), metadata.size())) {
+            // The stream skips without reading the skipped bytes
+            in.skipNBytes(offset);
+            return new Validated(new String(in.readAllBytes()), metadata);
+        } catch (IOException e) {
+            Metadata current = backend.metadata(bucket.root(), id);
+            if (current == null || current.generation() != metadata.generation()) {
+                // Replaced or deleted since the metadata was read
+                return readTail(id, offset);
+            }
+            logger.error("Failed to get content from bucket {} with ID {}", bucket.root(), id, e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Current generation of the blob read from metadata only, 0 if there is no such blob.
+     */
+    public long generation(String id) {
+        Metadata metadata = timed("metadata", () -> backend.metadata(bucket.root(), id));
+        return metadata == null ? 0 : metadata.generation();
+    }
+
+    /**
+     * Validators of the blob read from metadata only, without downloading the content.
+     *
+     * @return metadata, null if there is no such blob
+     */
+    public Metadata metadata(String id) {
+        return timed("metadata", () -> metadataFlight.run(id, () -> readMetadata(id)));
+    }
+
+    private Metadata readMetadata(String id) {
+        return backend.metadata(bucket.root(), id);
+    }
+
     public byte[] getBytes(String id) {
-        logger.debug("Getting bytes from bucket {} with ID {}", bucket.root(), id);
-        Blob blob = storage.get(bucket.root(), id);
-        if (blob == null) {
+        return timed("getBytes", () -> {
+            logger.debug("Getting bytes from bucket {} with ID {}", bucket.root(), id);
+            byte[] cached = cache == null ? null : cache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+            return bytesFlight.run(id, () -> readBytes(id));
+        });
+    }
+
+    private byte[] readBytes(String id) {
+        byte[] content = backend.read(bucket.root(), id);
+        if (content == null) {
             logger.warn("No blob found in bucket {} with ID {}", bucket.root(), id);
             return null;
         }
         try {
-            byte[] content = blob.getContent();
             logger.debug("Successfully retrieved bytes from bucket {} with ID {}", bucket.root(), id);
+            if (cache != null) {
+                cache.put(id, content);
+            }
             return content;
         } catch (Exception e) {
             logger.error("Failed to get bytes from bucket {} with ID {}", bucket.root(), id, e);
@@ -113,11 +485,375 @@ public class DataStore {
         }
     }
 
+    /**
+     * Content of the blob for the response, read when it is written. Contents not cached are streamed from the storage
+     * backend, never held as a whole before the first byte is sent. Contents up to the entry size of the cache are
+     * cached once one response read them whole, range requests are served without waiting for the whole content.
+     *
+     * @param metadata read before, the resource reads exactly this generation
+     */
+    public Resource resource(String id, Metadata metadata) {
+        return new BlobResource(bucket, id, metadata.size(), () -> {
+            // Time to the first byte, writing the response is timed by the web layer
+            long start = System.nanoTime();
+            String outcome = "failure";
+            try {
+                InputStream in = open(id, metadata);
+                outcome = "success";
+                return in;
+            } finally {
+                timer("open", outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    private InputStream open(String id, Metadata metadata) throws IOException {
+        if (cache != null) {
+            InputStream cached = cache.open(id);
+            if (cached != null) {
+                return cached;
+            }
+            if (cache.accepts(metadata.size())) {
+                logger.debug("Streaming blob from bucket {} with ID {} into the cache", bucket.root(), id);
+                return new CachingInputStream(backend.open(bucket.root(), id, metadata.generation(), metadata.size()),
+                        cache, id, metadata.size());
+            }
+        }
+        logger.debug("Streaming blob from bucket {} with ID {}", bucket.root(), id);
+        return backend.open(bucket.root(), id, metadata.generation(), metadata.size());
+    }
+
+    // Async
+
+    /*
+     * Same as the blocking methods, run on the I/O executor. Futures not completed within the timeout complete
+     * exceptionally with a TimeoutException, the storage call itself is not interrupted. A blob saved under a new ID
+     * after its future timed out is known to nobody and deleted, content-addressed blobs may be shared and are left
+     * to the orphan media sweep.
+     */
+
+    public CompletableFuture<String> saveAsync(InputStream data) {
+        return saveNewAsync(() -> save(data));
+    }
+
+    public CompletableFuture<String> saveAsync(String data, String id) {
+        return async(() -> save(data, id));
+    }
+
+    public CompletableFuture<String> decodeAndSaveAsync(String data) {
+        return saveNewAsync(() -> decodeAndSave(data));
+    }
+
+    public CompletableFuture<String> getAsync(String id) {
+        return async(() -> get(id));
+    }
+
+    public CompletableFuture<Validated> getValidatedAsync(String id) {
+        return async(() -> getValidated(id));
+    }
+
+    public CompletableFuture<byte[]> getBytesAsync(String id) {
+        return async(() -> getBytes(id));
+    }
+
+    public CompletableFuture<Metadata> metadataAsync(String id) {
+        return async(() -> metadata(id));
+    }
+
+    public CompletableFuture<Void> deleteAsync(String id) {
+        return async(() -> {
+            delete(id);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<String>> idsAsync() {
+        return async(this::ids);
+    }
+
+    private <T> CompletableFuture<T> async(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, ioExecutor).orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private CompletableFuture<String> saveNewAsync(Supplier<String> save) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(save, ioExecutor).whenComplete((id, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else if (!result.complete(id) && !contentAddressed) {
+                logger.warn("Deleting blob with ID {} from bucket {} saved after its timeout", id, bucket.root());
+                try {
+                    delete(id);
+                } catch (RuntimeException deleteFailure) {
+                    logger.error("Failed to delete late blob with ID {} from bucket {}", id, bucket.root(), deleteFailure);
+                }
+            }
+        });
+        return result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Batch reads
+
+    /**
+     * Reads the content of all blobs, at most {@code readParallelism} at the same time.
+     *
+     * @param ids of blobs
+     * @return contents keyed by ID in order of given IDs, with missing and failed IDs kept apart
+     */
+    public BatchReadResult<String> getAll(Collection<String> ids) {
+        return getAll(ids, (id, content) -> {});
+    }
+
+    /**
+     * Reads the content of all blobs, at most {@code readParallelism} at the same time.
+     *
+     * @param ids of blobs
+     * @param listener called from the reading threads as soon as each read finishes
+     */
+    public BatchReadResult<String> getAll(Collection<String> ids, BatchReadListener<String> listener) {
+        return readAll(ids, this::get, listener);
+    }
+
+    public BatchReadResult<byte[]> getBytesAll(Collection<String> ids) {
+        return getBytesAll(ids, (id, content) -> {});
+    }
+
+    public BatchReadResult<byte[]> getBytesAll(Collection<String> ids, BatchReadListener<byte[]> listener) {
+        return readAll(ids, this::getBytes, listener);
+    }
+
+    private <T> BatchReadResult<T> readAll(Collection<String> ids, Function<String, T> reader, BatchReadListener<T> listener) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        logger.debug("Reading {} blobs from bucket {} with parallelism {}", distinct.size(), bucket.root(), readParallelism);
+        Map<String, T> found = new ConcurrentHashMap<>();
+        Set<String> missing = ConcurrentHashMap.newKeySet();
+        Map<String, RuntimeException> failed = new ConcurrentHashMap<>();
+
+        Semaphore permits = new Semaphore(readParallelism);
+        CountDownLatch done = new CountDownLatch(distinct.size());
+        for (String id : distinct) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while reading from bucket " + bucket.root(), e);
+            }
+            Runnable read = () -> {
+                try {
+                    T content;
+                    try {
+                        content = reader.apply(id);
+                    } catch (RuntimeException e) {
+                        failed.put(id, e);
+                        listener.onFailure(id, e);
+                        return;
+                    }
+                    if (content == null) {
+                        missing.add(id);
+                        listener.onMissing(id);
+                    } else {
+                        found.put(id, content);
+                        listener.onFound(id, content);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Batch read listener failed for ID {} in bucket {}", id, bucket.root(), e);
+                } finally {
+                    permits.release();
+                    done.countDown();
+                }
+            };
+            try {
+                executor.execute(read);
+            } catch (RejectedExecutionException e) {
+                failed.put(id, e);
+                permits.release();
+                done.countDown();
+            }
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading from bucket " + bucket.root(), e);
+        }
+
+        // Keep the order of the given IDs
+        Map<String, T> orderedFound = new LinkedHashMap<>();
+        Set<String> orderedMissing = new LinkedHashSet<>();
+        Map<String, RuntimeException> orderedFailed = new LinkedHashMap<>();
+        for (String id : distinct) {
+            if (found.containsKey(id)) {
+                orderedFound.put(id, found.get(id));
+            } else if (missing.contains(id)) {
+                orderedMissing.add(id);
+            } else if (failed.containsKey(id)) {
+                orderedFailed.put(id, failed.get(id));
+            }
+        }
+        logger.debug("Read {} blobs from bucket {}, {} missing, {} failed",
+                orderedFound.size(), bucket.root(), orderedMissing.size(), orderedFailed.size());
+        return new BatchReadResult<>(orderedFound, orderedMissing, orderedFailed);
+    }
+
     private String makeId() {
         return UUID.randomUUID().toString();
     }
 
     public void delete(String id) {
-        storage.delete(bucket.root(), id);
+        timed("delete", () -> backend.delete(bucket.root(), id));
+        invalidate(id);
+    }
+
+    /**
+     * Deletes the blob only if it is still at the generation, for example from a listing read before.
+     *
+     * @return false if there is no such blob or it was written since
+     */
+    public boolean deleteIfGeneration(String id, long generation) {
+        logger.debug("Deleting blob from bucket {} with ID {} at generation {}", bucket.root(), id, generation);
+        boolean deleted = timed("delete", () -> backend.deleteIfGeneration(bucket.root(), id, generation));
+        invalidate(id);
+        return deleted;
+    }
+
+    private void invalidate(String id) {
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Deletes the blobs in batches instead of one request per blob.
+     *
+     * @param ids of blobs
+     * @return deleted, already missing and failed blobs
+     */
+    public BatchDeleteResult deleteAll(Collection<String> ids) {
+        return deleteAll(Map.of(this, ids));
+    }
+
+    /**
+     * Deletes blobs of several data stores in the same batches. All data stores have to use the same storage backend.
+     *
+     * @param idsByStore IDs of blobs to delete from each data store
+     * @return deleted, already missing and failed blobs, keyed by bucket root and ID
+     */
+    public static BatchDeleteResult deleteAll(Map<DataStore, ? extends Collection<String>> idsByStore) {
+        List<Map.Entry<String, String>> blobs = new ArrayList<>();
+        StorageBackend backend = null;
+        for (Map.Entry<DataStore, ? extends Collection<String>> entry : idsByStore.entrySet()) {
+            DataStore dataStore = entry.getKey();
+            if (backend != null && !backend.equals(dataStore.backend)) {
+                throw new IllegalArgumentException("Data stores of one batch delete have to share the storage backend");
+            }
+            backend = dataStore.backend;
+            for (String id : new LinkedHashSet<>(entry.getValue())) {
+                // Also when the delete fails, the blob may be gone anyway
+                dataStore.invalidate(id);
+                blobs.add(Map.entry(dataStore.bucket.root(), id));
+            }
+        }
+        if (backend == null) {
+            return new BatchDeleteResult(Set.of(), Set.of(), Map.of());
+        }
+        long start = System.nanoTime();
+        BatchDeleteResult result = backend.deleteAll(blobs);
+        // One batch for all data stores, each records its time
+        String outcome = result.isComplete() ? "success" : "failure";
+        for (DataStore dataStore : idsByStore.keySet()) {
+            dataStore.timer("deleteAll", outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return result;
+    }
+
+    public record Versioned(String content, long generation) {
+    }
+
+    /**
+     * @param metadata of the generation the content was read at
+     */
+    public record Validated(String content, Metadata metadata) {
+    }
+
+    /**
+     * @param generation of the blob, changes with every write
+     * @param md5 base64 MD5 hash of the content, null for composite blobs
+     * @param updated last update in epoch milliseconds, -1 if unknown
+     * @param size of the content in bytes, -1 if unknown
+     */
+    public record Metadata(long generation, String md5, long updated, long size) {
+
+        /**
+         * Strong entity tag, the same for the same content as long as the MD5 hash is known.
+         */
+        public String etag() {
+            return "\"" + (md5 != null ? md5 : Long.toString(generation)) + "\"";
+        }
+    }
+
+    public static class Builder {
+        private final StorageBackend backend;
+        private final Bucket bucket;
+        // Without an executor batch reads run one by one in the calling thread
+        private Executor executor = Runnable::run;
+        private int readParallelism = 1;
+        private MediaCache cache;
+        private boolean contentAddressed;
+        // Without an executor async calls run in the calling thread
+        private Executor ioExecutor = Runnable::run;
+        private Duration timeout = Duration.ofSeconds(30);
+        // Without a registry the counters are kept by the global registry
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder(StorageBackend backend, Bucket bucket) {
+            this.backend = backend;
+            this.bucket = bucket;
+        }
+
+        /**
+         * @param executor running batch reads
+         * @param readParallelism maximum reads of one batch running at the same time
+         */
+        public Builder batchReads(Executor executor, int readParallelism) {
+            this.executor = executor;
+            this.readParallelism = readParallelism;
+            return this;
+        }
+
+        /**
+         * @param cache of contents returned by {@link DataStore#getBytes(String)}
+         */
+        public Builder cache(MediaCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * @param contentAddressed save data without an explicit ID under the hex SHA-256 of its content, so the
+         *                         same content is stored once
+         */
+        public Builder contentAddressed(boolean contentAddressed) {
+            this.contentAddressed = contentAddressed;
+            return this;
+        }
+
+        /**
+         * @param ioExecutor running the async calls
+         * @param timeout of every async call
+         */
+        public Builder async(Executor ioExecutor, Duration timeout) {
+            this.ioExecutor = ioExecutor;
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public DataStore build() {
+            return new DataStore(this);
+        }
     }
 }
@@ -0,0 +1,693 @@
+package com.lk.photopredict.repository;
+
+import com.lk.photopredict.config.ExecutionMode;
+import com.lk.photopredict.payload.AnalysisTrace;
+import com.lk.photopredict.payload.Deviation;
+import com.lk.photopredict.payload.DeviationAnalysis;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Metadata of all deviations kept in one manifest blob in the deviation bucket.
+ * The list of deviations is answered from memory after checking the manifest generation, instead of reading every
+ * deviation blob. Pages are ordered by timestamp and then by ID, the cursor holds both of the last returned deviation.
+ * Changes are applied in memory at once and appended to the manifest shortly after, guarded by the generation so
+ * changes of other instances are merged instead of overwritten.
+ * The manifest is a log of JSON lines. Its first line holds all entries as of the last compaction, every further line
+ * the changes of one write. Writers append only their changes and readers read only the lines appended since their
+ * last read. Once the appended lines outgrow the first one, the next write compacts the manifest into one line again.
+ * Every line carries the epoch of the compaction it follows, so a reader that missed a compaction reads the manifest
+ * as a whole.
+ * Readers take no lock, storage calls are made without holding the lock. Deviations saved but missing in the
+ * manifest, because the process stopped before writing it, are added when the manifest is first loaded.
+ */
+@Component
+public class DeviationIndex {
+    private static final Logger logger = LoggerFactory.getLogger(DeviationIndex.class);
+
+    public static final String MANIFEST_ID = "_index.json";
+    // Manifest of former versions, one JSON array of all entries, compacted on the next flush
+    private static final TypeReference<List<Entry>> LEGACY_MANIFEST_TYPE = new TypeReference<>() {};
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+    private static final char CURSOR_SEPARATOR = '/';
+    // Appended lines are compacted once they are larger than both the first line and this size
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private final DataStore deviationStorage;
+    private final ObjectMapper objectMapper;
+    // Lines must not break, also when the shared mapper indents
+    private final ObjectWriter lineWriter;
+    private final long flushDelayMillis;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // Deviations as last read or written plus the changes since. Its entries are changed in place under the lock
+    // and read without it, a new snapshot is published when the manifest was read or written. Null until first loaded.
+    private volatile Snapshot snapshot;
+
+    // Guards the pending changes and publishing a snapshot, never held during storage calls. Not synchronized to
+    // keep virtual threads unpinned.
+    private final ReentrantLock lock = new ReentrantLock();
+    // Changes not yet written to the manifest, replayed on top of the manifest whenever it is reloaded
+    private final List<Change> pending = new ArrayList<>();
+
+    public DeviationIndex(
+            @Qualifier("deviation") DataStore deviationStorage,
+            ObjectMapper objectMapper,
+            ExecutionMode executionMode,
+            @Value("${deviations.index.flush-delay-ms:500}") long flushDelayMillis) {
+        this.deviationStorage = deviationStorage;
+        this.objectMapper = objectMapper;
+        this.lineWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        this.flushDelayMillis = flushDelayMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(executionMode.threadFactory("deviation-index-"));
+    }
+
+    /**
+     * True for blob names of deviations, false for analyses, their traces, the manifest and other entries of the
+     * deviation bucket.
+     */
+    public static boolean isDeviation(String id) {
+        return !id.startsWith("_") && !id.endsWith(DeviationAnalysis.ID_SUFFIX) && !id.endsWith(AnalysisTrace.ID_SUFFIX);
+    }
+
+    public List<Deviation> list() {
+        return page(null, Integer.MAX_VALUE, Filter.NONE).deviations();
+    }
+
+    /**
+     * @param cursor from the previous page, null for the first page
+     * @param limit maximum number of deviations on the page
+     * @param filter deviations to include
+     * @return page with the cursor of the next page, or null cursor on the last page
+     */
+    public Page page(String cursor, int limit, Filter filter) {
+        NavigableMap<Order, Entry> ordered = current().entries().ordered;
+        Order after = cursor == null ? null : decodeCursor(cursor);
+        Order first = filter.from() == null ? null : new Order(filter.from(), "");
+        NavigableMap<Order, Entry> remaining;
+        if (after != null && (first == null || after.compareTo(first) >= 0)) {
+            remaining = ordered.tailMap(after, false);
+        } else if (first != null) {
+            remaining = ordered.tailMap(first, true);
+        } else {
+            remaining = ordered;
+        }
+        List<Deviation> deviations = new ArrayList<>();
+        Order last = null;
+        for (Map.Entry<Order, Entry> entry : remaining.entrySet()) {
+            Order order = entry.getKey();
+            if (filter.to() != null && order.timestamp() != null && !order.timestamp().isBefore(filter.to())) {
+                // All following deviations are later
+                break;
+            }
+            if (!filter.matches(order, entry.getValue())) {
+                continue;
+            }
+            if (deviations.size() == limit) {
+                // There is at least one more matching deviation
+                return new Page(deviations, encodeCursor(last));
+            }
+            deviations.add(entry.getValue().deviation());
+            last = order;
+        }
+        return new Page(deviations, null);
+    }
+
+    /**
+     * Photos and recordings of all deviations. With content addressed storage the same file may belong to several
+     * deviations.
+     */
+    public Set<String> referencedMedia() {
+        Set<String> media = new HashSet<>();
+        for (Entry entry : current().entries().byId.values()) {
+            Deviation deviation = entry.deviation();
+            if (deviation.images() != null) {
+                media.addAll(deviation.images());
+            }
+            if (deviation.recordings() != null) {
+                media.addAll(deviation.recordings());
+            }
+        }
+        return media;
+    }
+
+    /**
+     * @return entry of the deviation, null when there is no such deviation
+     */
+    public Entry get(String id) {
+        return current().entries().byId.get(id);
+    }
+
+    /**
+     * Same as {@link #get} from the last loaded snapshot, without checking the manifest in storage. May miss changes
+     * of other instances, for frequent lookups like polling.
+     *
+     * @return entry of the deviation, null when there is no such deviation
+     */
+    public Entry cached(String id) {
+        Snapshot current = snapshot;
+        return (current == null ? current() : current).entries().byId.get(id);
+    }
+
+    public void put(Deviation deviation) {
+        change(new Change(new Entry(deviation, false), null, null));
+    }
+
+    public void markAnalyzed(String id) {
+        change(new Change(null, id, null));
+    }
+
+    public void remove(String id) {
+        change(new Change(null, null, id));
+    }
+
+    /**
+     * Snapshot matching the manifest in the storage. Only its generation is read, the manifest itself only when
+     * another instance changed it, and then only the lines appended since.
+     */
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null && deviationStorage.generation(MANIFEST_ID) == current.generation()) {
+            return current;
+        }
+        return reload();
+    }
+
+    private void change(Change change) {
+        lock.lock();
+        try {
+            pending.add(change);
+            Snapshot current = snapshot;
+            if (current != null) {
+                change.apply(current.entries());
+            }
+        } finally {
+            lock.unlock();
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flusher.isShutdown()) {
+            // Written by the final flush on shutdown
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(() -> {
+                flushScheduled.set(false);
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to write deviation index, retrying later", e);
+                    scheduleFlush();
+                }
+            }, flushDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Appends the pending changes as one line, or compacts the manifest into one line of all entries when the
+     * appended lines have grown too large.
+     */
+    private void flush() {
+        for (int attempt = 1; attempt <= MAX_FLUSH_ATTEMPTS; attempt++) {
+            if (snapshot == null) {
+                reload();
+            }
+            Snapshot base;
+            boolean compaction;
+            String manifest;
+            String epoch;
+            int flushed;
+            lock.lock();
+            try {
+                base = snapshot;
+                compaction = base.compactionDue();
+                if (pending.isEmpty() && !compaction) {
+                    return;
+                }
+                flushed = pending.size();
+                if (compaction) {
+                    // Every pending change is applied to the entries
+                    epoch = UUID.randomUUID().toString();
+                    manifest = line(epoch, base.entries().byId.values().stream()
+                            .map(entry -> new Change(entry, null, null))
+                            .toList());
+                } else {
+                    epoch = base.epoch();
+                    manifest = line(epoch, List.copyOf(pending));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            OptionalLong saved = compaction
+                    ? deviationStorage.compareAndSave(manifest, MANIFEST_ID, base.generation())
+                    : deviationStorage.compareAndAppend(manifest, MANIFEST_ID, base.generation());
+
+            if (saved.isPresent()) {
+                lock.lock();
+                try {
+                    pending.subList(0, flushed).clear();
+                    // Changes made while writing are applied to the entries as well and stay pending. A snapshot
+                    // published in the meantime was read at this generation or a later one.
+                    if (snapshot == base) {
+                        long written = length(manifest);
+                        snapshot = compaction
+                                ? new Snapshot(base.entries(), saved.getAsLong(), written, written, epoch)
+                                : new Snapshot(base.entries(), saved.getAsLong(), base.size() + written,
+                                        base.compactedSize(), epoch);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                logger.debug("Deviation index {} with {} changes, generation {}", compaction ? "compacted" : "appended",
+                        flushed, saved.getAsLong());
+                return;
+            }
+            // Another instance wrote the manifest in the meantime, merge our changes into its version
+            logger.debug("Deviation index changed concurrently, reloading (attempt {})", attempt);
+            reload();
+        }
+        throw new IllegalStateException("Deviation index is changed concurrently too often");
+    }
+
+    /**
+     * Applies the lines appended to the manifest since it was last read, or reads it as a whole when it was not read
+     * yet or compacted since. Pending changes are replayed on top of it.
+     */
+    private Snapshot reload() {
+        Snapshot base = snapshot;
+        if (base != null && base.epoch() != null) {
+            Snapshot appended = readAppended(base);
+            if (appended != null) {
+                return appended;
+            }
+        }
+        return readWhole();
+    }
+
+    /**
+     * @return snapshot with the lines appended since the base applied, null if the manifest must be read as a whole
+     */
+    private Snapshot readAppended(Snapshot base) {
+        DataStore.Validated tail = deviationStorage.getTail(MANIFEST_ID, base.size());
+        if (tail == null) {
+            // Deleted, rebuilt from the deviation bucket
+            return null;
+        }
+        DataStore.Metadata metadata = tail.metadata();
+        if (metadata.generation() == base.generation()) {
+            return base;
+        }
+        // Appending makes the manifest longer, a compaction may not
+        List<Line> lines = metadata.size() <= base.size() ? null : parse(tail.content());
+        if (lines == null || lines.stream().anyMatch(line -> !base.epoch().equals(line.epoch()))) {
+            logger.debug("Deviation index was compacted since generation {}", base.generation());
+            return null;
+        }
+
+        lock.lock();
+        try {
+            Snapshot current = snapshot;
+            if (current != base) {
+                // Read or written by another thread in the meantime
+                return current.generation() >= metadata.generation() ? current : null;
+            }
+            Entries entries = current.entries();
+            lines.forEach(line -> line.changes().forEach(change -> change.apply(entries)));
+            // Pending changes are appended after the lines read, so they stay on top
+            pending.forEach(change -> change.apply(entries));
+            snapshot = new Snapshot(entries, metadata.generation(), metadata.size(), base.compactedSize(),
+                    base.epoch());
+            logger.debug("Deviation index read {} appended lines at generation {}", lines.size(),
+                    metadata.generation());
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the whole manifest. Without a readable manifest, the index is rebuilt from the deviation bucket once and
+     * written as a new manifest. The storage is read without holding the lock, concurrent reloads may read the same
+     * manifest, the snapshot of the newest generation is kept.
+     */
+    private Snapshot readWhole() {
+        boolean first = snapshot == null;
+        DataStore.Versioned read = deviationStorage.getVersioned(MANIFEST_ID);
+        Manifest manifest = read == null ? null : parseWhole(read.content());
+        // A replaced manifest is overwritten at its generation, a missing one is created
+        long loadedGeneration = read == null ? 0 : read.generation();
+        List<Change> repairs = new ArrayList<>();
+        if (manifest == null) {
+            logger.info("No deviation index found, rebuilding it from the deviation bucket");
+            Entries entries = new Entries();
+            rebuild().forEach(entries::put);
+            // Without an epoch the rebuilt index is written even if nothing changes afterwards
+            manifest = new Manifest(entries, 0, 0, null);
+        } else if (first) {
+            repairs.addAll(reconcile(manifest.entries().byId.values()));
+        }
+
+        Snapshot result;
+        lock.lock();
+        try {
+            pending.addAll(repairs);
+            Snapshot current = snapshot;
+            if (current != null && current.generation() > loadedGeneration) {
+                // Reloaded or written by another thread in the meantime
+                result = current;
+            } else {
+                Entries entries = manifest.entries();
+                pending.forEach(change -> change.apply(entries));
+                result = new Snapshot(entries, loadedGeneration, manifest.size(), manifest.compactedSize(),
+                        manifest.epoch());
+                snapshot = result;
+                logger.debug("Deviation index loaded with {} deviations at generation {}", entries.byId.size(),
+                        loadedGeneration);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!repairs.isEmpty() || result.compactionDue()) {
+            scheduleFlush();
+        }
+        return result;
+    }
+
+    /**
+     * @return entries with all lines applied, null if the manifest cannot be read
+     */
+    private Manifest parseWhole(String content) {
+        long size = length(content);
+        Entries entries = new Entries();
+        if (content.stripLeading().startsWith("[")) {
+            try {
+                objectMapper.readValue(content, LEGACY_MANIFEST_TYPE).forEach(entries::put);
+                return new Manifest(entries, size, size, null);
+            } catch (JsonProcessingException e) {
+                logger.error("Failed to parse deviation index", e);
+                return null;
+            }
+        }
+        List<Line> lines = parse(content);
+        if (lines == null || lines.isEmpty()) {
+            return null;
+        }
+        lines.forEach(line -> line.changes().forEach(change -> change.apply(entries)));
+        return new Manifest(entries, size, length(content.substring(0, content.indexOf('\n') + 1)),
+                lines.get(0).epoch());
+    }
+
+    /**
+     * @return lines of the manifest, null if one of them cannot be read
+     */
+    private List<Line> parse(String content) {
+        List<Line> lines = new ArrayList<>();
+        for (String line : content.split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                lines.add(objectMapper.readValue(line, Line.class));
+            } catch (JsonProcessingException e) {
+                logger.error("Failed to parse deviation index", e);
+                return null;
+            }
+        }
+        return lines;
+    }
+
+    private List<Entry> rebuild() {
+        List<String> ids = deviationStorage.ids();
+        return read(ids.stream().filter(DeviationIndex::isDeviation).toList(), new HashSet<>(ids));
+    }
+
+    /**
+     * Changes missing in the manifest because the process stopped before writing them: deviations saved but not
+     * in the manifest and analyses saved but not marked.
+     */
+    private List<Change> reconcile(Collection<Entry> manifest) {
+        List<String> ids = deviationStorage.ids();
+        Set<String> names = new HashSet<>(ids);
+        Set<String> indexed = new HashSet<>();
+        List<Change> changes = new ArrayList<>();
+        for (Entry entry : manifest) {
+            String id = entry.deviation().id();
+            indexed.add(id);
+            if (!entry.analyzed() && names.contains(id + DeviationAnalysis.ID_SUFFIX)) {
+                changes.add(new Change(null, id, null));
+            }
+        }
+        List<String> missing = ids.stream().filter(DeviationIndex::isDeviation).filter(id -> !indexed.contains(id)).toList();
+        if (!missing.isEmpty()) {
+            for (Entry entry : read(missing, names)) {
+                changes.add(new Change(entry, null, null));
+            }
+        }
+        if (!changes.isEmpty()) {
+            logger.info("Deviation index was missing {} changes, adding them", changes.size());
+        }
+        return changes;
+    }
+
+    /**
+     * @param deviationIds deviations to read
+     * @param names of all blobs in the deviation bucket, to tell which deviations are analyzed
+     */
+    private List<Entry> read(List<String> deviationIds, Set<String> names) {
+        List<Entry> read = new ArrayList<>();
+        BatchReadResult<String> contents = deviationStorage.getAll(deviationIds);
+        contents.failed().forEach((id, e) -> logger.error("Failed to read deviation: {}", id, e));
+        contents.found().forEach((id, content) -> {
+            try {
+                Deviation deviation = objectMapper.readValue(content, Deviation.class);
+                read.add(new Entry(deviation, names.contains(id + DeviationAnalysis.ID_SUFFIX)));
+            } catch (JsonProcessingException e) {
+                logger.error("Failed to parse deviation: {}", id, e);
+            }
+        });
+        return read;
+    }
+
+    /**
+     * @return the changes as one line of the manifest, ending with a line break
+     */
+    private String line(String epoch, List<Change> changes) {
+        try {
+            return lineWriter.writeValueAsString(new Line(epoch, changes)) + "\n";
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize deviation index", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long length(String content) {
+        return content.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static String encodeCursor(Order order) {
+        String timestamp = order.timestamp() == null ? "" : order.timestamp().toString();
+        String position = timestamp + CURSOR_SEPARATOR + order.id();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Order decodeCursor(String cursor) {
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = position.indexOf(CURSOR_SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            String timestamp = position.substring(0, separator);
+            return new Order(timestamp.isEmpty() ? null : LocalDateTime.parse(timestamp),
+                    position.substring(separator + 1));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Failed to write deviation index on shutdown", e);
+        }
+    }
+
+    /**
+     * Entries of the manifest at a generation plus the pending changes.
+     *
+     * @param size of the manifest in bytes, lines appended by other instances start there
+     * @param compactedSize of the first line of the manifest in bytes
+     * @param epoch of the last compaction, null if the manifest is missing or of the former format
+     */
+    private record Snapshot(Entries entries, long generation, long size, long compactedSize, String epoch) {
+
+        boolean compactionDue() {
+            return epoch == null || size - compactedSize > Math.max(compactedSize, MIN_COMPACTION_BYTES);
+        }
+    }
+
+    /**
+     * Manifest read as a whole, before the pending changes are applied.
+     */
+    private record Manifest(Entries entries, long size, long compactedSize, String epoch) {
+    }
+
+    /**
+     * One line of the manifest.
+     *
+     * @param epoch of the compaction the line follows, a new one for the first line
+     * @param changes in the order they were made
+     */
+    record Line(String epoch, List<Change> changes) {
+    }
+
+    /**
+     * Change of the index, exactly one of the fields is set. Applying a change twice has the same effect as once.
+     *
+     * @param put entry added or replaced
+     * @param analyzed ID of a deviation whose analysis was saved
+     * @param removed ID of a removed deviation
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Change(Entry put, String analyzed, String removed) {
+
+        private void apply(Entries entries) {
+            if (put != null) {
+                entries.put(put);
+            } else if (analyzed != null) {
+                entries.markAnalyzed(analyzed);
+            } else if (removed != null) {
+                entries.remove(removed);
+            }
+        }
+    }
+
+    /**
+     * Entries by deviation ID for lookups and in page order, kept in sync. Changed under the lock, readers iterate
+     * without it and see each entry either before or after a concurrent change.
+     */
+    private static final class Entries {
+        final NavigableMap<String, Entry> byId = new ConcurrentSkipListMap<>();
+        final NavigableMap<Order, Entry> ordered = new ConcurrentSkipListMap<>();
+
+        void put(Entry entry) {
+            Entry previous = byId.put(entry.deviation().id(), entry);
+            if (previous != null) {
+                // The timestamp may have changed
+                ordered.remove(Order.of(previous.deviation()));
+            }
+            ordered.put(Order.of(entry.deviation()), entry);
+        }
+
+        void markAnalyzed(String id) {
+            Entry entry = byId.get(id);
+            if (entry != null) {
+                put(new Entry(entry.deviation(), true));
+            }
+        }
+
+        void remove(String id) {
+            Entry entry = byId.remove(id);
+            if (entry != null) {
+                ordered.remove(Order.of(entry.deviation()));
+            }
+        }
+    }
+
+    /**
+     * Position of a deviation in the pages. Deviations without a readable timestamp come first.
+     */
+    private record Order(LocalDateTime timestamp, String id) implements Comparable<Order> {
+        private static final Comparator<Order> COMPARATOR = Comparator
+                .comparing(Order::timestamp, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(Order::id);
+
+        static Order of(Deviation deviation) {
+            try {
+                return new Order(LocalDateTime.parse(deviation.timestamp()), deviation.id());
+            } catch (DateTimeParseException | NullPointerException e) {
+                return new Order(null, deviation.id());
+            }
+        }
+
+        @Override
+        public int compareTo(Order other) {
+            return COMPARATOR.compare(this, other);
+        }
+    }
+
+    /**
+     * Deviation in the manifest.
+     *
+     * @param deviation metadata of the deviation
+     * @param analyzed whether the analysis of the deviation is saved
+     */
+    public record Entry(Deviation deviation, boolean analyzed) {
+    }
+
+    /**
+     * @param deviations on this page
+     * @param nextCursor cursor of the next page, null on the last page
+     */
+    public record Page(List<Deviation> deviations, String nextCursor) {
+    }
+
+    /**
+     * @param from earliest timestamp, inclusive, null for no limit
+     * @param to latest timestamp, exclusive, null for no limit
+     * @param analyzed only deviations with (true) or without (false) analysis, null for all
+     */
+    public record Filter(LocalDateTime from, LocalDateTime to, Boolean analyzed) {
+        public static final Filter NONE = new Filter(null, null, null);
+
+        boolean matches(Order order, Entry entry) {
+            if (analyzed != null && analyzed != entry.analyzed()) {
+                return false;
+            }
+            if (from == null && to == null) {
+                return true;
+            }
+            LocalDateTime timestamp = order.timestamp();
+            return timestamp != null && (from == null || !timestamp.isBefore(from))
+                    && (to == null || timestamp.isBefore(to));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.lk.photopredict.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream over a file channel. Skipping moves the position of the channel instead of reading the skipped bytes, so
+ * range requests start at their offset.
+ */
+class FileChannelInputStream extends InputStream {
+    private final FileChannel channel;
+
+    FileChannelInputStream(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        return channel.read(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long position = channel.position();
+        long target = Math.min(position + n, channel.size());
+        channel.position(target);
+        return target - position;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, channel.size() - channel.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,251 @@
+package com.lk.photopredict.repository;
+
+import com.google.cloud.BatchResult;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Blobs in Google Cloud Storage, buckets are Cloud Storage buckets.
+ *
+ * @param storage client, backends with the same client are equal so their blobs can be deleted in one batch
+ */
+public record GcsBackend(Storage storage) implements StorageBackend {
+    private static final Logger logger = LoggerFactory.getLogger(GcsBackend.class);
+
+    // Limit of operations in one Cloud Storage batch request
+    private static final int MAX_BATCH_SIZE = 100;
+    // Bytes downloaded at once by a streaming read, instead of the 2 MB default of the read channel
+    private static final int STREAM_CHUNK_SIZE = 256 * 1024;
+    // Cloud Storage answers a failed generation precondition with this status
+    private static final int PRECONDITION_FAILED = 412;
+    // Custom metadata changed by a touch
+    private static final String TOUCHED_METADATA = "touched";
+    // Appended data is uploaded under the ID of its blob with this suffix and a random part
+    private static final String APPEND_SUFFIX = ".append-";
+
+    @Override
+    public void write(String bucket, String id, String contentType, InputStream data) throws IOException {
+        storage.createFrom(BlobInfo.newBuilder(BlobId.of(bucket, id)).setContentType(contentType).build(), data);
+    }
+
+    @Override
+    public long compareAndWrite(String bucket, String id, String contentType, Map<String, String> metadata, byte[] data,
+                                long expectedGeneration) {
+        BlobId blobId = expectedGeneration == 0 ? BlobId.of(bucket, id) : BlobId.of(bucket, id, expectedGeneration);
+        BlobInfo blobInfo = BlobInfo.newBuilder(blobId)
+                .setContentType(contentType)
+                .setMetadata(metadata)
+                .build();
+        Storage.BlobTargetOption precondition = expectedGeneration == 0
+                ? Storage.BlobTargetOption.doesNotExist()
+                : Storage.BlobTargetOption.generationMatch();
+        try {
+            return storage.create(blobInfo, data, precondition).getGeneration();
+        } catch (StorageException e) {
+            if (e.getCode() == PRECONDITION_FAILED) {
+                return -1;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public long compareAndAppend(String bucket, String id, String contentType, byte[] data, long expectedGeneration) {
+        // Composed onto the end of the blob inside the storage, only the appended data is uploaded
+        BlobId part = BlobId.of(bucket, id + APPEND_SUFFIX + UUID.randomUUID());
+        storage.create(BlobInfo.newBuilder(part).setContentType(contentType).build(), data);
+        try {
+            return storage.compose(Storage.ComposeRequest.newBuilder()
+                    .addSource(id, expectedGeneration)
+                    .addSource(part.getName())
+                    .setTarget(BlobInfo.newBuilder(BlobId.of(bucket, id, expectedGeneration))
+                            .setContentType(contentType)
+                            .build())
+                    .setTargetOptions(Storage.BlobTargetOption.generationMatch())
+                    .build()).getGeneration();
+        } catch (StorageException e) {
+            if (e.getCode() == PRECONDITION_FAILED || e.getCode() == 404) {
+                return -1;
+            }
+            throw e;
+        } finally {
+            storage.delete(part);
+        }
+    }
+
+    @Override
+    public boolean copyIfAbsent(String bucket, String sourceId, String targetId, String contentType, Map<String, String> metadata) {
+        try {
+            storage.copy(Storage.CopyRequest.newBuilder()
+                    .setSource(BlobId.of(bucket, sourceId))
+                    .setTarget(BlobInfo.newBuilder(BlobId.of(bucket, targetId))
+                            .setContentType(contentType)
+                            .setMetadata(metadata)
+                            .build(), Storage.BlobTargetOption.doesNotExist())
+                    .build()).getResult();
+            return true;
+        } catch (StorageException e) {
+            if (e.getCode() == PRECONDITION_FAILED) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public byte[] read(String bucket, String id) {
+        Blob blob = storage.get(bucket, id);
+        return blob == null ? null : blob.getContent();
+    }
+
+    @Override
+    public byte[] read(String bucket, String id, long generation) {
+        try {
+            return storage.readAllBytes(BlobId.of(bucket, id, generation));
+        } catch (StorageException e) {
+            if (e.getCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public DataStore.Metadata metadata(String bucket, String id) {
+        Blob blob = storage.get(BlobId.of(bucket, id), Storage.BlobGetOption.fields(
+                Storage.BlobField.GENERATION, Storage.BlobField.MD5HASH, Storage.BlobField.UPDATED, Storage.BlobField.SIZE));
+        return blob == null ? null : metadata(blob);
+    }
+
+    private static DataStore.Metadata metadata(Blob blob) {
+        long updated = blob.getUpdateTimeOffsetDateTime() == null ? -1 : blob.getUpdateTimeOffsetDateTime().toInstant().toEpochMilli();
+        return new DataStore.Metadata(blob.getGeneration(), blob.getMd5(), updated, blob.getSize() == null ? -1 : blob.getSize());
+    }
+
+    @Override
+    public InputStream open(String bucket, String id, long generation, long size) throws IOException {
+        BlobId blobId = BlobId.of(bucket, id, generation);
+        try {
+            ReadChannel reader = storage.reader(blobId);
+            reader.setChunkSize(STREAM_CHUNK_SIZE);
+            return new ReadChannelInputStream(reader, size);
+        } catch (StorageException e) {
+            throw new IOException("Failed to open blob " + blobId, e);
+        }
+    }
+
+    @Override
+    public Map<String, DataStore.Metadata> list(String bucket, String prefix) {
+        Map<String, DataStore.Metadata> blobs = new LinkedHashMap<>();
+        // All pages, not only the first one
+        (prefix == null ? storage.list(bucket) : storage.list(bucket, Storage.BlobListOption.prefix(prefix)))
+                .iterateAll()
+                .forEach(blob -> blobs.put(blob.getName(), metadata(blob)));
+        return blobs;
+    }
+
+    @Override
+    public boolean delete(String bucket, String id) {
+        return storage.delete(bucket, id);
+    }
+
+    @Override
+    public boolean deleteIfGeneration(String bucket, String id, long generation) {
+        try {
+            return storage.delete(BlobId.of(bucket, id), Storage.BlobSourceOption.generationMatch(generation));
+        } catch (StorageException e) {
+            if (e.getCode() == PRECONDITION_FAILED) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean touch(String bucket, String id) {
+        Blob blob = storage.get(bucket, id);
+        if (blob == null) {
+            return false;
+        }
+        // Rewriting a blob onto itself needs a change, the time of the touch is one
+        Map<String, String> metadata = new HashMap<>(blob.getMetadata() == null ? Map.of() : blob.getMetadata());
+        metadata.put(TOUCHED_METADATA, Long.toString(System.currentTimeMillis()));
+        try {
+            storage.copy(Storage.CopyRequest.newBuilder()
+                    .setSource(blob.getBlobId())
+                    .setTarget(BlobInfo.newBuilder(BlobId.of(bucket, id, blob.getGeneration()))
+                            .setContentType(blob.getContentType())
+                            .setMetadata(metadata)
+                            .build(), Storage.BlobTargetOption.generationMatch())
+                    .build()).getResult();
+            return true;
+        } catch (StorageException e) {
+            if (e.getCode() == PRECONDITION_FAILED) {
+                // Written in the meantime, which gave it a new generation as well
+                return true;
+            }
+            if (e.getCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public BatchDeleteResult deleteAll(List<Map.Entry<String, String>> blobs) {
+        Set<Map.Entry<String, String>> deleted = new LinkedHashSet<>();
+        Set<Map.Entry<String, String>> missing = new LinkedHashSet<>();
+        Map<Map.Entry<String, String>, RuntimeException> failed = new LinkedHashMap<>();
+        for (int from = 0; from < blobs.size(); from += MAX_BATCH_SIZE) {
+            List<Map.Entry<String, String>> chunk = blobs.subList(from, Math.min(from + MAX_BATCH_SIZE, blobs.size()));
+            logger.debug("Deleting {} blobs in one batch", chunk.size());
+            StorageBatch batch = storage.batch();
+            for (Map.Entry<String, String> blob : chunk) {
+                String bucket = blob.getKey();
+                String id = blob.getValue();
+                batch.delete(bucket, id).notify(new BatchResult.Callback<>() {
+                    @Override
+                    public void success(Boolean result) {
+                        if (Boolean.TRUE.equals(result)) {
+                            deleted.add(blob);
+                        } else {
+                            missing.add(blob);
+                        }
+                    }
+
+                    @Override
+                    public void error(StorageException e) {
+                        logger.error("Failed to delete blob from bucket {} with ID {}", bucket, id, e);
+                        failed.put(blob, e);
+                    }
+                });
+            }
+            try {
+                batch.submit();
+            } catch (RuntimeException e) {
+                logger.error("Failed to submit batch delete of {} blobs", chunk.size(), e);
+                chunk.stream()
+                        .filter(blob -> !deleted.contains(blob) && !missing.contains(blob))
+                        .forEach(blob -> failed.putIfAbsent(blob, e));
+            }
+        }
+        return new BatchDeleteResult(deleted, missing, failed);
+    }
+}
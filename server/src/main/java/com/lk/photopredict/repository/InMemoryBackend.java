@@ -0,0 +1,154 @@
+package com.lk.photopredict.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blobs in memory, lost on restart. For benchmarks and load tests, which should measure the server and not the
+ * storage. Every write gives the blob a new generation from one counter.
+ */
+public class InMemoryBackend implements StorageBackend {
+
+    // Keyed by bucket and ID, sorted so listing a prefix is a range
+    private final ConcurrentSkipListMap<String, Stored> blobs = new ConcurrentSkipListMap<>();
+    private final AtomicLong generations = new AtomicLong();
+
+    @Override
+    public void write(String bucket, String id, String contentType, InputStream data) throws IOException {
+        byte[] content = data.readAllBytes();
+        blobs.put(key(bucket, id), stored(content, Map.of()));
+    }
+
+    @Override
+    public long compareAndWrite(String bucket, String id, String contentType, Map<String, String> metadata, byte[] data,
+                                long expectedGeneration) {
+        Stored written = stored(data.clone(), metadata);
+        Stored result = blobs.compute(key(bucket, id), (key, current) -> {
+            long generation = current == null ? 0 : current.generation();
+            return generation == expectedGeneration ? written : current;
+        });
+        return result == written ? written.generation() : -1;
+    }
+
+    @Override
+    public long compareAndAppend(String bucket, String id, String contentType, byte[] data, long expectedGeneration) {
+        Stored current = blobs.get(key(bucket, id));
+        if (current == null || current.generation() != expectedGeneration) {
+            return -1;
+        }
+        byte[] content = Arrays.copyOf(current.content(), current.content().length + data.length);
+        System.arraycopy(data, 0, content, current.content().length, data.length);
+        Stored appended = stored(content, current.custom());
+        return blobs.replace(key(bucket, id), current, appended) ? appended.generation() : -1;
+    }
+
+    @Override
+    public boolean copyIfAbsent(String bucket, String sourceId, String targetId, String contentType, Map<String, String> metadata) {
+        Stored source = blobs.get(key(bucket, sourceId));
+        if (source == null) {
+            throw new IllegalArgumentException("No blob " + bucket + "/" + sourceId);
+        }
+        return blobs.putIfAbsent(key(bucket, targetId), stored(source.content(), metadata)) == null;
+    }
+
+    @Override
+    public byte[] read(String bucket, String id) {
+        Stored stored = blobs.get(key(bucket, id));
+        return stored == null ? null : stored.content().clone();
+    }
+
+    @Override
+    public byte[] read(String bucket, String id, long generation) {
+        Stored stored = blobs.get(key(bucket, id));
+        return stored == null || stored.generation() != generation ? null : stored.content().clone();
+    }
+
+    @Override
+    public DataStore.Metadata metadata(String bucket, String id) {
+        Stored stored = blobs.get(key(bucket, id));
+        return stored == null ? null : stored.metadata();
+    }
+
+    @Override
+    public InputStream open(String bucket, String id, long generation, long size) throws IOException {
+        Stored stored = blobs.get(key(bucket, id));
+        if (stored == null || stored.generation() != generation) {
+            throw new IOException("Blob " + bucket + "/" + id + " is no longer at generation " + generation);
+        }
+        return new ByteArrayInputStream(stored.content());
+    }
+
+    @Override
+    public Map<String, DataStore.Metadata> list(String bucket, String prefix) {
+        String from = key(bucket, prefix == null ? "" : prefix);
+        Map<String, DataStore.Metadata> listed = new LinkedHashMap<>();
+        for (Map.Entry<String, Stored> blob : blobs.tailMap(from).entrySet()) {
+            if (!blob.getKey().startsWith(from)) {
+                break;
+            }
+            listed.put(blob.getKey().substring(bucket.length() + 1), blob.getValue().metadata());
+        }
+        return listed;
+    }
+
+    @Override
+    public boolean delete(String bucket, String id) {
+        return blobs.remove(key(bucket, id)) != null;
+    }
+
+    @Override
+    public boolean deleteIfGeneration(String bucket, String id, long generation) {
+        Stored stored = blobs.get(key(bucket, id));
+        return stored != null && stored.generation() == generation && blobs.remove(key(bucket, id), stored);
+    }
+
+    @Override
+    public boolean touch(String bucket, String id) {
+        return blobs.computeIfPresent(key(bucket, id), (key, current) -> stored(current.content(), current.custom())) != null;
+    }
+
+    @Override
+    public BatchDeleteResult deleteAll(List<Map.Entry<String, String>> blobs) {
+        Set<Map.Entry<String, String>> deleted = new LinkedHashSet<>();
+        Set<Map.Entry<String, String>> missing = new LinkedHashSet<>();
+        for (Map.Entry<String, String> blob : blobs) {
+            (delete(blob.getKey(), blob.getValue()) ? deleted : missing).add(blob);
+        }
+        return new BatchDeleteResult(deleted, missing, Map.of());
+    }
+
+    private Stored stored(byte[] content, Map<String, String> metadata) {
+        return new Stored(content, generations.incrementAndGet(), md5(content), System.currentTimeMillis(), metadata);
+    }
+
+    private static String key(String bucket, String id) {
+        return bucket + "/" + id;
+    }
+
+    private static String md5(byte[] content) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Stored(byte[] content, long generation, String md5, long updated, Map<String, String> custom) {
+        DataStore.Metadata metadata() {
+            return new DataStore.Metadata(generation, md5, updated, content.length);
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.lk.photopredict.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Blobs in files of the local disk, for edge deployments, development and benchmarks without Cloud Storage.
+ * The content of a blob is in {@code <root>/<bucket>/data/<id>}, its generation, MD5 hash, content type and custom
+ * metadata in {@code <root>/<bucket>/meta/<id>}. Content is written to a temporary file and moved into place, so
+ * readers never see a partial blob, appends copy the content and move the longer copy into place as well. Reads of a
+ * generation share a lock with commits, so content and generation always match. Whole blobs are read through a memory mapping, streams read from a file channel
+ * that skips by moving its position.
+ * Generations are epoch microseconds of the write, increasing for every write of a blob.
+ */
+public class LocalBackend implements StorageBackend {
+    private static final Logger logger = LoggerFactory.getLogger(LocalBackend.class);
+
+    private static final String GENERATION = "generation";
+    private static final String MD5 = "md5";
+    private static final String CONTENT_TYPE = "contentType";
+    private static final String METADATA_PREFIX = "metadata.";
+
+    private final Path root;
+    // Written by writes and deletes, so preconditions and sidecar files stay consistent with the content. Read while
+    // matching a generation to the content, which a commit moves into place before its sidecar file.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long lastGeneration;
+
+    public LocalBackend(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        logger.info("Storing blobs in {}", this.root);
+    }
+
+    @Override
+    public void write(String bucket, String id, String contentType, InputStream data) throws IOException {
+        Path temp = temp(bucket);
+        try {
+            String md5 = copy(data, temp);
+            lock.writeLock().lock();
+            try {
+                commit(bucket, id, temp, md5, contentType, Map.of());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public long compareAndWrite(String bucket, String id, String contentType, Map<String, String> metadata, byte[] data,
+                                long expectedGeneration) {
+        try {
+            Path temp = temp(bucket);
+            try {
+                Files.write(temp, data);
+                String md5 = Base64.getEncoder().encodeToString(md5().digest(data));
+                lock.writeLock().lock();
+                try {
+                    Properties current = properties(bucket, id);
+                    long generation = current == null ? 0 : Long.parseLong(current.getProperty(GENERATION));
+                    if (generation != expectedGeneration) {
+                        return -1;
+                    }
+                    return commit(bucket, id, temp, md5, contentType, metadata);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long compareAndAppend(String bucket, String id, String contentType, byte[] data, long expectedGeneration) {
+        try {
+            Path temp = temp(bucket);
+            try {
+                lock.writeLock().lock();
+                try {
+                    Properties current = properties(bucket, id);
+                    if (current == null || Long.parseLong(current.getProperty(GENERATION)) != expectedGeneration) {
+                        return -1;
+                    }
+                    String md5;
+                    try (InputStream content = new SequenceInputStream(Files.newInputStream(data(bucket, id)),
+                            new ByteArrayInputStream(data))) {
+                        md5 = copy(content, temp);
+                    }
+                    return commit(bucket, id, temp, md5, contentType, custom(current));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean copyIfAbsent(String bucket, String sourceId, String targetId, String contentType, Map<String, String> metadata) {
+        try {
+            Path temp = temp(bucket);
+            try {
+                lock.writeLock().lock();
+                try {
+                    if (Files.exists(meta(bucket, targetId))) {
+                        return false;
+                    }
+                    Properties source = properties(bucket, sourceId);
+                    if (source == null) {
+                        throw new NoSuchFileException(data(bucket, sourceId).toString());
+                    }
+                    Files.copy(data(bucket, sourceId), temp, StandardCopyOption.REPLACE_EXISTING);
+                    commit(bucket, targetId, temp, source.getProperty(MD5), contentType, metadata);
+                    return true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Moves the written content into place and writes its sidecar file. Called holding the write lock.
+     *
+     * @return generation of the blob
+     */
+    private long commit(String bucket, String id, Path temp, String md5, String contentType,
+                        Map<String, String> metadata) throws IOException {
+        long generation = nextGeneration();
+        Properties properties = new Properties();
+        properties.setProperty(GENERATION, Long.toString(generation));
+        properties.setProperty(MD5, md5);
+        properties.setProperty(CONTENT_TYPE, contentType);
+        if (metadata != null) {
+            metadata.forEach((key, value) -> properties.setProperty(METADATA_PREFIX + key, value));
+        }
+        Path data = data(bucket, id);
+        Files.createDirectories(data.getParent());
+        move(temp, data);
+        store(bucket, id, properties);
+        return generation;
+    }
+
+    /**
+     * Replaces the sidecar file of the blob. Called holding the write lock.
+     */
+    private void store(String bucket, String id, Properties properties) throws IOException {
+        Path meta = meta(bucket, id);
+        Files.createDirectories(meta.getParent());
+        Path metaTemp = temp(bucket);
+        try (Writer writer = Files.newBufferedWriter(metaTemp)) {
+            properties.store(writer, null);
+        }
+        move(metaTemp, meta);
+    }
+
+    /**
+     * Called holding the write lock.
+     */
+    private long nextGeneration() {
+        long generation = Math.max(System.currentTimeMillis() * 1000, lastGeneration + 1);
+        lastGeneration = generation;
+        return generation;
+    }
+
+    @Override
+    public byte[] read(String bucket, String id) {
+        try (FileChannel channel = FileChannel.open(data(bucket, id), StandardOpenOption.READ)) {
+            // Mapped, so the content is copied once from the page cache into the returned array
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] content = new byte[mapped.capacity()];
+            mapped.get(content);
+            return content;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public byte[] read(String bucket, String id, long generation) {
+        lock.readLock().lock();
+        try {
+            DataStore.Metadata metadata = metadata(bucket, id);
+            if (metadata == null || metadata.generation() != generation) {
+                return null;
+            }
+            return read(bucket, id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public DataStore.Metadata metadata(String bucket, String id) {
+        lock.readLock().lock();
+        try {
+            Properties properties = properties(bucket, id);
+            if (properties == null) {
+                return null;
+            }
+            Path data = data(bucket, id);
+            return new DataStore.Metadata(Long.parseLong(properties.getProperty(GENERATION)), properties.getProperty(MD5),
+                    Files.getLastModifiedTime(data).toMillis(), Files.size(data));
+        } catch (NoSuchFileException e) {
+            // Deleted in the meantime
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public InputStream open(String bucket, String id, long generation, long size) throws IOException {
+        FileChannel channel;
+        DataStore.Metadata metadata;
+        // Opened and checked without a commit in between, an open file keeps its content also when the blob is
+        // replaced later
+        lock.readLock().lock();
+        try {
+            channel = FileChannel.open(data(bucket, id), StandardOpenOption.READ);
+            metadata = metadata(bucket, id);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (metadata == null || metadata.generation() != generation) {
+            channel.close();
+            throw new IOException("Blob " + bucket + "/" + id + " is no longer at generation " + generation);
+        }
+        return new FileChannelInputStream(channel);
+    }
+
+    @Override
+    public Map<String, DataStore.Metadata> list(String bucket, String prefix) {
+        Path directory = root.resolve(bucket).resolve("meta");
+        if (!Files.isDirectory(directory)) {
+            return Map.of();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            Map<String, DataStore.Metadata> blobs = new LinkedHashMap<>();
+            files.filter(Files::isRegularFile)
+                    .map(file -> directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))
+                    .filter(id -> prefix == null || id.startsWith(prefix))
+                    .sorted()
+                    .forEach(id -> {
+                        DataStore.Metadata metadata = metadata(bucket, id);
+                        if (metadata != null) {
+                            blobs.put(id, metadata);
+                        }
+                    });
+            return blobs;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean delete(String bucket, String id) {
+        lock.writeLock().lock();
+        try {
+            // Metadata first, a blob without metadata does not exist
+            boolean deleted = Files.deleteIfExists(meta(bucket, id));
+            Files.deleteIfExists(data(bucket, id));
+            return deleted;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteIfGeneration(String bucket, String id, long generation) {
+        lock.writeLock().lock();
+        try {
+            Properties properties = properties(bucket, id);
+            if (properties == null || Long.parseLong(properties.getProperty(GENERATION)) != generation) {
+                return false;
+            }
+            Files.deleteIfExists(meta(bucket, id));
+            Files.deleteIfExists(data(bucket, id));
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean touch(String bucket, String id) {
+        lock.writeLock().lock();
+        try {
+            Properties properties = properties(bucket, id);
+            if (properties == null) {
+                return false;
+            }
+            // The content stays, only the sidecar file gets the new generation
+            properties.setProperty(GENERATION, Long.toString(nextGeneration()));
+            store(bucket, id, properties);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public BatchDeleteResult deleteAll(List<Map.Entry<String, String>> blobs) {
+        Set<Map.Entry<String, String>> deleted = new LinkedHashSet<>();
+        Set<Map.Entry<String, String>> missing = new LinkedHashSet<>();
+        Map<Map.Entry<String, String>, RuntimeException> failed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> blob : blobs) {
+            try {
+                if (delete(blob.getKey(), blob.getValue())) {
+                    deleted.add(blob);
+                } else {
+                    missing.add(blob);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Failed to delete blob from bucket {} with ID {}", blob.getKey(), blob.getValue(), e);
+                failed.put(blob, e);
+            }
+        }
+        return new BatchDeleteResult(deleted, missing, failed);
+    }
+
+    private Properties properties(String bucket, String id) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(meta(bucket, id))) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return properties;
+    }
+
+    private static Map<String, String> custom(Properties properties) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(METADATA_PREFIX)) {
+                metadata.put(key.substring(METADATA_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+        return metadata;
+    }
+
+    private Path data(String bucket, String id) {
+        return resolve(bucket, "data", id);
+    }
+
+    private Path meta(String bucket, String id) {
+        return resolve(bucket, "meta", id);
+    }
+
+    private Path resolve(String bucket, String kind, String id) {
+        Path directory = root.resolve(bucket).resolve(kind);
+        Path path = directory.resolve(id).normalize();
+        if (!path.startsWith(directory) || path.equals(directory)) {
+            throw new IllegalArgumentException("Invalid blob ID " + id);
+        }
+        return path;
+    }
+
+    private Path temp(String bucket) throws IOException {
+        Path directory = root.resolve(bucket).resolve("tmp");
+        Files.createDirectories(directory);
+        return directory.resolve(UUID.randomUUID().toString());
+    }
+
+    private static String copy(InputStream data, Path target) throws IOException {
+        MessageDigest md5 = md5();
+        try (OutputStream out = new DigestOutputStream(Files.newOutputStream(target), md5)) {
+            data.transferTo(out);
+        }
+        return Base64.getEncoder().encodeToString(md5.digest());
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.lk.photopredict.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Contents of media blobs of one bucket kept in memory, bounded by their total size in bytes.
+ * Eviction is by Caffeine's W-TinyLFU, so often requested media stay cached even when many media are requested once.
+ * Off heap the contents are kept in direct buffers, so large media don't fill the old generation of the heap.
+ */
+public class MediaCache {
+    private static final Logger logger = LoggerFactory.getLogger(MediaCache.class);
+
+    private final Cache<String, Content> cache;
+    private final boolean offHeap;
+    private final long maxEntryBytes;
+
+    /**
+     * @param name of the cache in metrics
+     * @param maxBytes total size of cached contents
+     * @param maxEntryBytes larger contents are not cached
+     * @param offHeap keep contents in direct buffers instead of the heap
+     */
+    public MediaCache(String name, long maxBytes, long maxEntryBytes, boolean offHeap, MeterRegistry meterRegistry) {
+        this.offHeap = offHeap;
+        this.maxEntryBytes = maxEntryBytes;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String id, Content content) -> content.size())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        Gauge.builder("media.cache.bytes", cache, c -> c.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .description("Size of the media kept in the cache")
+                .tag("cache", name)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        logger.info("Media cache {} holds up to {} bytes {}", name, maxBytes, offHeap ? "off heap" : "on heap");
+    }
+
+    /**
+     * @return a copy of the cached content, null if it is not cached
+     */
+    public byte[] get(String id) {
+        Content content = cache.getIfPresent(id);
+        return content == null ? null : content.bytes();
+    }
+
+    /**
+     * @return stream of the cached content without copying it, null if it is not cached
+     */
+    public InputStream open(String id) {
+        Content content = cache.getIfPresent(id);
+        return content == null ? null : content.open();
+    }
+
+    /**
+     * Whether a content of the given size would be cached.
+     */
+    public boolean accepts(long size) {
+        return size >= 0 && size <= maxEntryBytes;
+    }
+
+    public void put(String id, byte[] bytes) {
+        if (!accepts(bytes.length)) {
+            return;
+        }
+        cache.put(id, offHeap ? new OffHeap(bytes) : new OnHeap(bytes));
+    }
+
+    public void invalidate(String id) {
+        cache.invalidate(id);
+    }
+
+    private sealed interface Content permits OnHeap, OffHeap {
+        int size();
+
+        byte[] bytes();
+
+        InputStream open();
+    }
+
+    private record OnHeap(byte[] content) implements Content {
+        @Override
+        public int size() {
+            return content.length;
+        }
+
+        @Override
+        public byte[] bytes() {
+            // Callers may modify the returned array
+            return content.clone();
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(content);
+        }
+    }
+
+    /**
+     * Content in a direct buffer, released by the garbage collector together with this small wrapper after eviction.
+     */
+    private record OffHeap(ByteBuffer content) implements Content {
+        OffHeap(byte[] bytes) {
+            this(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip());
+        }
+
+        @Override
+        public int size() {
+            return content.capacity();
+        }
+
+        @Override
+        public byte[] bytes() {
+            byte[] bytes = new byte[content.capacity()];
+            // Absolute get, safe for concurrent readers
+            content.get(0, bytes);
+            return bytes;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteBufferInputStream(content.duplicate());
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        // Own position and limit, the content is shared by all readers
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.lk.photopredict.repository;
+
+import com.google.cloud.ReadChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream over a storage read channel. Skipping seeks the channel, so the skipped bytes are never downloaded.
+ */
+class ReadChannelInputStream extends InputStream {
+    private final ReadChannel channel;
+    private final long size;
+    private long position;
+
+    ReadChannelInputStream(ReadChannel channel, long size) {
+        this.channel = channel;
+        this.size = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long target = size < 0 ? position + n : Math.min(position + n, size);
+        channel.seek(target);
+        long skipped = target - position;
+        position = target;
+        return skipped;
+    }
+
+    @Override
+    public void close() {
+        channel.close();
+    }
+}
@@ -0,0 +1,53 @@
+package com.lk.photopredict.repository;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Concurrent calls for the same key share one call. The first caller runs it, callers arriving while it runs wait
+ * for its result or exception instead of running it again. Nothing is kept once the call finishes.
+ */
+public class SingleFlight<T> {
+    private final ConcurrentMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+    // Copy of the result for waiting callers, so none of them sees changes of another
+    private final UnaryOperator<T> share;
+
+    public SingleFlight(Counter coalesced, UnaryOperator<T> share) {
+        this.coalesced = coalesced;
+        this.share = share;
+    }
+
+    public T run(String key, Supplier<T> call) {
+        CompletableFuture<T> own = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, own);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                T result = running.join();
+                return result == null ? null : share.apply(result);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw e;
+            }
+        }
+        try {
+            T result = call.get();
+            own.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+}
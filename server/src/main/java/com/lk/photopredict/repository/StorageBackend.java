@@ -0,0 +1,98 @@
+package com.lk.photopredict.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Blob storage used by {@link DataStore}. Blobs are addressed by the root of their bucket and their ID, every write
+ * gives the blob a new generation. Caching, coalescing, hashing and parallelism are left to the data store.
+ */
+public interface StorageBackend {
+
+    /**
+     * Creates or replaces the blob with the content of the stream, without holding it in memory as a whole.
+     */
+    void write(String bucket, String id, String contentType, InputStream data) throws IOException;
+
+    /**
+     * Writes the blob only if it is still at the expected generation.
+     *
+     * @param expectedGeneration generation read before, 0 if the blob must not exist yet
+     * @return generation of the written blob, -1 if the blob is at another generation
+     */
+    long compareAndWrite(String bucket, String id, String contentType, Map<String, String> metadata, byte[] data,
+                         long expectedGeneration);
+
+    /**
+     * Appends the data to the end of the blob only if it is still at the expected generation. The content the blob
+     * has already is not sent again.
+     *
+     * @return generation of the longer blob, -1 if the blob is at another generation or does not exist
+     */
+    long compareAndAppend(String bucket, String id, String contentType, byte[] data, long expectedGeneration);
+
+    /**
+     * Copies the blob under another ID inside the storage, unless that ID exists already.
+     *
+     * @return false if the target existed
+     */
+    boolean copyIfAbsent(String bucket, String sourceId, String targetId, String contentType, Map<String, String> metadata);
+
+    /**
+     * @return whole content of the current generation, null if there is no such blob
+     */
+    byte[] read(String bucket, String id);
+
+    /**
+     * @return whole content of the generation, null if the blob is not at that generation anymore
+     */
+    byte[] read(String bucket, String id, long generation);
+
+    /**
+     * @return metadata only, null if there is no such blob
+     */
+    DataStore.Metadata metadata(String bucket, String id);
+
+    /**
+     * Stream over the generation of the blob, read as it is consumed. Skipping moves the read position without
+     * reading the skipped bytes.
+     *
+     * @param size of the blob from its metadata
+     */
+    InputStream open(String bucket, String id, long generation, long size) throws IOException;
+
+    /**
+     * @param prefix of IDs, null for all blobs
+     * @return metadata of the blobs keyed by ID, in order of IDs
+     */
+    Map<String, DataStore.Metadata> list(String bucket, String prefix);
+
+    /**
+     * @return false if there was no such blob
+     */
+    boolean delete(String bucket, String id);
+
+    /**
+     * Deletes the blob only if it is still at the generation.
+     *
+     * @return false if there was no such blob or it is at another generation
+     */
+    boolean deleteIfGeneration(String bucket, String id, long generation);
+
+    /**
+     * Gives the blob a new generation without changing its content, so deletes conditional on an older generation
+     * fail.
+     *
+     * @return false if there is no such blob
+     */
+    boolean touch(String bucket, String id);
+
+    /**
+     * Deletes many blobs with as few requests as the storage allows.
+     *
+     * @param blobs bucket roots and IDs
+     */
+    BatchDeleteResult deleteAll(List<Map.Entry<String, String>> blobs);
+}
@@ -0,0 +1,17 @@
+package com.lk.photopredict.repository;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * All storage threads are busy and the queue of storage calls is full, the client should retry later.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class StorageBusyException extends RejectedExecutionException {
+
+    public StorageBusyException(String message) {
+        super(message);
+    }
+}
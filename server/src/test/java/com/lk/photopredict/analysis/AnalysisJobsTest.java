@@ -0,0 +1,88 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.payload.AnalysisStatus;
+import com.lk.photopredict.payload.Deviation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
+
+class AnalysisJobsTest {
+
+    private final AnalysisJobs jobs = new AnalysisJobs(0);
+
+    @AfterEach
+    void tearDown() {
+        jobs.shutdown();
+    }
+
+    @Test
+    void tracksProgressAndCompletesWaitingRequests() {
+        jobs.queued(new Deviation("1", "2025-01-01T00:00:00", List.of("p1", "p2", "p1"), List.of("r1"), ""));
+        AnalysisStatus queued = jobs.status("1");
+        assertThat(queued.state()).isEqualTo(AnalysisStatus.State.QUEUED);
+        assertThat(queued.stages()).extracting(AnalysisStatus.Stage::stage, AnalysisStatus.Stage::total).containsExactly(
+                tuple("transcription", 1),
+                tuple("image_description", 2),
+                tuple("text_generation", 1),
+                tuple("json_parse", 1),
+                tuple("save", 1));
+
+        CompletableFuture<AnalysisStatus> changed = jobs.changeAfter("1", queued.version());
+        assertThat(changed).isNotDone();
+        jobs.started("1");
+        assertThat(changed).isCompleted();
+        assertThat(changed.join().state()).isEqualTo(AnalysisStatus.State.RUNNING);
+
+        jobs.stepFinished("1", AnalysisStage.IMAGE_DESCRIPTION, true);
+        jobs.stepFinished("1", AnalysisStage.IMAGE_DESCRIPTION, false);
+        jobs.finished("1", new RuntimeException(new IOException("quota exceeded")));
+
+        AnalysisStatus failed = jobs.status("1");
+        assertThat(failed.state()).isEqualTo(AnalysisStatus.State.FAILED);
+        assertThat(failed.error()).contains("quota exceeded");
+        assertThat(failed.stages().get(1)).isEqualTo(new AnalysisStatus.Stage("image_description", 2, 1, 1));
+        // Finished, nothing to wait for
+        assertThat(jobs.changeAfter("1", failed.version())).isCompleted();
+        assertThat(jobs.changeAfter("unknown", 0)).isNull();
+    }
+
+    @Test
+    void replacingOrRemovingAJobCompletesWaitingRequests() {
+        Deviation deviation = new Deviation("1", "2025-01-01T00:00:00", List.of("p1"), List.of(), "");
+        jobs.queued(deviation);
+        jobs.started("1");
+        long running = jobs.status("1").version();
+        CompletableFuture<AnalysisStatus> changed = jobs.changeAfter("1", running);
+
+        // Analyzed again
+        jobs.queued(deviation);
+        assertThat(changed).isCompleted();
+        assertThat(changed.join().state()).isEqualTo(AnalysisStatus.State.QUEUED);
+        assertThat(changed.join().version()).isGreaterThan(running);
+
+        CompletableFuture<AnalysisStatus> removed = jobs.changeAfter("1", changed.join().version());
+        jobs.remove("1");
+        assertThat(removed).isCompleted();
+        assertThat(jobs.status("1")).isNull();
+    }
+
+    @Test
+    void sweepRemovesFinishedJobsOnly() throws Exception {
+        jobs.queued(new Deviation("done", "2025-01-01T00:00:00", List.of("p1"), List.of(), ""));
+        jobs.queued(new Deviation("running", "2025-01-01T00:00:00", List.of("p1"), List.of(), ""));
+        jobs.started("running");
+        jobs.finished("done", null);
+        Thread.sleep(2);
+
+        jobs.sweep();
+
+        assertThat(jobs.status("done")).isNull();
+        assertThat(jobs.status("running").state()).isEqualTo(AnalysisStatus.State.RUNNING);
+    }
+}
@@ -0,0 +1,92 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.repository.DataStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AnalysisResultCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DataStore deviationStorage = mock(DataStore.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AnalysisResultCache cache = new AnalysisResultCache(deviationStorage, objectMapper, meterRegistry,
+            true, 30, 100, 100, 60);
+
+    @AfterEach
+    void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void modelIsCalledOncePerContentPromptAndModel() {
+        AtomicInteger calls = new AtomicInteger();
+        String first = cache.get(AnalysisResultCache.Kind.IMAGE_DESCRIPTION, "md5", "prompt", "model",
+                () -> "description " + calls.incrementAndGet());
+        String second = cache.get(AnalysisResultCache.Kind.IMAGE_DESCRIPTION, "md5", "prompt", "model",
+                () -> "description " + calls.incrementAndGet());
+        String otherPrompt = cache.get(AnalysisResultCache.Kind.IMAGE_DESCRIPTION, "md5", "other prompt", "model",
+                () -> "description " + calls.incrementAndGet());
+
+        assertThat(first).isEqualTo("description 1").isEqualTo(second);
+        assertThat(otherPrompt).isEqualTo("description 2");
+        verify(deviationStorage).save(anyString(), startsWith(AnalysisResultCache.PREFIX + "image_description/"));
+    }
+
+    @Test
+    void storedResultIsUsedAfterRestart() throws Exception {
+        String stored = objectMapper.writeValueAsString(new AnalysisResultCache.Entry("transcript", System.currentTimeMillis()));
+        when(deviationStorage.get(startsWith(AnalysisResultCache.PREFIX))).thenReturn(stored);
+
+        String result = cache.get(AnalysisResultCache.Kind.TRANSCRIPTION, "md5", "en-US", "model", () -> {
+            throw new AssertionError("model called");
+        });
+
+        assertThat(result).isEqualTo("transcript");
+        assertThat(meterRegistry.get("analysis.cache.requests").tag("result", "stored").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentMissesCallTheModelOnce() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() ->
+                cache.get(AnalysisResultCache.Kind.TRANSCRIPTION, "md5", "en-US", "model", () -> {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "transcript";
+                }));
+        started.await();
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() ->
+                cache.get(AnalysisResultCache.Kind.TRANSCRIPTION, "md5", "en-US", "model", () -> "again " + calls.incrementAndGet()));
+        Counter coalesced = meterRegistry.get("analysis.cache.requests").tag("kind", "transcription").tag("result", "coalesced").counter();
+        while (coalesced.count() < 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("transcript");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("transcript");
+        assertThat(calls).hasValue(1);
+    }
+}
@@ -0,0 +1,48 @@
+package com.lk.photopredict.analysis;
+
+import com.lk.photopredict.payload.AnalysisTrace;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnalysisTraceRecorderTest {
+
+    @Test
+    void recordsCachedGeneratedAndFailedSteps() throws Exception {
+        AnalysisTraceRecorder recorder = new AnalysisTraceRecorder("1");
+        recorder.startCached(AnalysisStage.TRANSCRIPTION, "r1").bytesIn(100).bytesOut(10).succeeded();
+        recorder.startCached(AnalysisStage.IMAGE_DESCRIPTION, "p1").bytesIn(2000)
+                .generated(new GeneratedText("socket", "gemini", 300, 2)).succeeded();
+        recorder.start(AnalysisStage.TEXT_GENERATION, null)
+                .failed(new RuntimeException(new IOException("quota exceeded")));
+
+        AnalysisTrace trace = recorder.finish(new IllegalStateException("failed"));
+
+        assertThat(trace.deviationId()).isEqualTo("1");
+        assertThat(trace.outcome()).isEqualTo("failure");
+        assertThat(trace.steps()).hasSize(3);
+        AnalysisTrace.Step transcription = step(trace, "transcription");
+        assertThat(transcription.cached()).isTrue();
+        assertThat(transcription.model()).isNull();
+        assertThat(transcription.bytesIn()).isEqualTo(100);
+        AnalysisTrace.Step description = step(trace, "image_description");
+        assertThat(description.cached()).isFalse();
+        assertThat(description.model()).isEqualTo("gemini");
+        assertThat(description.promptTokens()).isEqualTo(300);
+        assertThat(description.outputTokens()).isEqualTo(2);
+        AnalysisTrace.Step generation = step(trace, "text_generation");
+        assertThat(generation.outcome()).isEqualTo("failure");
+        assertThat(generation.error()).contains("quota exceeded");
+
+        // Saved as JSON and read back by the trace endpoint
+        ObjectMapper objectMapper = new ObjectMapper();
+        assertThat(objectMapper.readValue(objectMapper.writeValueAsString(trace), AnalysisTrace.class)).isEqualTo(trace);
+    }
+
+    private static AnalysisTrace.Step step(AnalysisTrace trace, String stage) {
+        return trace.steps().stream().filter(step -> step.stage().equals(stage)).findFirst().orElseThrow();
+    }
+}
@@ -3,7 +3,6 @@ package com.lk.photopredict.analysis;
 import com.lk.photopredict.payload.Solution;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.api.gax.core.CredentialsProvider;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -14,10 +13,9 @@ import java.io.IOException;
 class VertexAITextGeneratorTest {
 
     @Autowired
-    private  CredentialsProvider credentialsProvider;
+    private VertexAITextGenerator vertexAITextGenerator;
     @Test
     void generateTextTest() throws IOException {
-        VertexAITextGenerator vertexAITextGenerator = new VertexAITextGenerator(credentialsProvider);
 //        Here, the results of voice-to-text conversion, comments, and image descriptors can be mixed to produce the final result.
         String prompt = """
                 Expert description based on test reports: The customer complains of periodic problems with the electrical installation. From time to time, the circuit breakers trip in an uncontrolled manner.
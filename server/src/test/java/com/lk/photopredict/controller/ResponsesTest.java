@@ -0,0 +1,55 @@
+package com.lk.photopredict.controller;
+
+import com.lk.photopredict.repository.DataStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponsesTest {
+
+    private final DataStore.Metadata metadata = new DataStore.Metadata(3, "abc==", 1_700_000_000_500L, 10);
+
+    @Test
+    void entityTagDecidesBeforeDate() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(List.of("\"other\"", "W/\"abc==\""));
+        assertThat(Responses.isNotModified(headers, metadata)).isTrue();
+
+        headers.setIfNoneMatch("\"other\"");
+        headers.setIfModifiedSince(1_700_000_000_000L);
+        assertThat(Responses.isNotModified(headers, metadata)).isFalse();
+    }
+
+    @Test
+    void dateIsComparedInWholeSeconds() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfModifiedSince(1_700_000_000_000L);
+        assertThat(Responses.isNotModified(headers, metadata)).isTrue();
+
+        headers.setIfModifiedSince(1_699_999_999_000L);
+        assertThat(Responses.isNotModified(headers, metadata)).isFalse();
+    }
+
+    @Test
+    void unknownUpdateTimeHasNoLastModified() {
+        DataStore.Metadata unknown = new DataStore.Metadata(3, "abc==", -1, 10);
+        assertThat(Responses.ok(unknown).build().getHeaders().getLastModified()).isEqualTo(-1);
+        assertThat(Responses.notModified(unknown).getHeaders().getETag()).isEqualTo("\"abc==\"");
+        assertThat(Responses.ok(metadata).build().getHeaders().getLastModified()).isEqualTo(1_700_000_000_000L);
+    }
+
+    @Test
+    void timeoutIsGatewayTimeout() {
+        DeferredResult<String> result = Responses.deferred(CompletableFuture.failedFuture(new TimeoutException()));
+        assertThat(result.getResult()).isInstanceOfSatisfying(ResponseStatusException.class,
+                e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT));
+    }
+}
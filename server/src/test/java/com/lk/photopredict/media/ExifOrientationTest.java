@@ -0,0 +1,51 @@
+package com.lk.photopredict.media;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExifOrientationTest {
+
+    @Test
+    void readsTheOrientationInBothByteOrders() {
+        assertThat(ExifOrientation.of(exif(ByteOrder.BIG_ENDIAN, 6))).isEqualTo(6);
+        assertThat(ExifOrientation.of(exif(ByteOrder.LITTLE_ENDIAN, 8))).isEqualTo(8);
+        assertThat(ExifOrientation.of("http://ns.adobe.com/xap/1.0/".getBytes(StandardCharsets.US_ASCII)))
+                .isEqualTo(ExifOrientation.NORMAL);
+    }
+
+    @Test
+    void rotatesClockwiseForOrientationSix() {
+        BufferedImage landscape = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        landscape.setRGB(0, 0, 0xff0000);
+
+        BufferedImage portrait = ExifOrientation.apply(landscape, 6);
+
+        assertThat(portrait.getWidth()).isEqualTo(2);
+        assertThat(portrait.getHeight()).isEqualTo(4);
+        // Top left ends up top right
+        assertThat(portrait.getRGB(1, 0) & 0xffffff).isEqualTo(0xff0000);
+        assertThat(portrait.getRGB(0, 0) & 0xffffff).isZero();
+    }
+
+    /**
+     * APP1 segment with a single orientation entry in the first image file directory.
+     */
+    private static byte[] exif(ByteOrder order, int orientation) {
+        ByteBuffer segment = ByteBuffer.allocate(6 + 8 + 2 + 12 + 4).order(order);
+        segment.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII));
+        segment.put(order == ByteOrder.LITTLE_ENDIAN ? "II".getBytes(StandardCharsets.US_ASCII) : "MM".getBytes(StandardCharsets.US_ASCII));
+        segment.putShort((short) 42);
+        segment.putInt(8);
+        segment.putShort((short) 1);
+        // Tag, type short, count 1, value
+        segment.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        segment.putInt(0);
+        return segment.array();
+    }
+}
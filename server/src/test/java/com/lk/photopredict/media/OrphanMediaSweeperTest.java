@@ -0,0 +1,74 @@
+package com.lk.photopredict.media;
+
+import com.lk.photopredict.repository.Bucket;
+import com.lk.photopredict.repository.DataStore;
+import com.lk.photopredict.repository.DeviationIndex;
+import com.lk.photopredict.repository.InMemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OrphanMediaSweeperTest {
+
+    private final InMemoryBackend backend = new InMemoryBackend();
+    private final DataStore photos = DataStore.builder(backend, Bucket.Name.Image)
+            .contentAddressed(true).meterRegistry(new SimpleMeterRegistry()).build();
+    private final DataStore recordings = DataStore.builder(backend, Bucket.Name.Recording)
+            .meterRegistry(new SimpleMeterRegistry()).build();
+    private final DeviationIndex deviationIndex = mock(DeviationIndex.class);
+    private final OrphanMediaSweeper sweeper = new OrphanMediaSweeper(photos, recordings, deviationIndex, 60);
+
+    @AfterEach
+    void tearDown() {
+        sweeper.shutdown();
+    }
+
+    @Test
+    void deletesMediaUnreferencedInTwoSweeps() {
+        String kept = photos.save(new ByteArrayInputStream("kept".getBytes()));
+        photos.save(new ByteArrayInputStream("thumb".getBytes()), ImageVariants.Variant.THUMB.id(kept));
+        String orphan = photos.save(new ByteArrayInputStream("orphan".getBytes()));
+        String recording = recordings.save(new ByteArrayInputStream("recording".getBytes()));
+        when(deviationIndex.referencedMedia()).thenReturn(Set.of(kept));
+
+        sweeper.sweep();
+        // Possibly uploaded for a deviation not indexed yet
+        assertThat(photos.ids()).contains(orphan);
+
+        sweeper.sweep();
+        assertThat(photos.ids()).containsExactlyInAnyOrder(kept, ImageVariants.Variant.THUMB.id(kept));
+        // Not content addressed, deleted with its deviation
+        assertThat(recordings.ids()).containsExactly(recording);
+    }
+
+    @Test
+    void keepsMediaReferencedAgain() {
+        String photo = photos.save(new ByteArrayInputStream("photo".getBytes()));
+        when(deviationIndex.referencedMedia()).thenReturn(Set.of(), Set.of(photo));
+
+        sweeper.sweep();
+        sweeper.sweep();
+
+        assertThat(photos.ids()).containsExactly(photo);
+    }
+
+    @Test
+    void keepsMediaUploadedAgainBetweenSweeps() {
+        String photo = photos.save(new ByteArrayInputStream("photo".getBytes()));
+        when(deviationIndex.referencedMedia()).thenReturn(Set.of());
+
+        sweeper.sweep();
+        // Same content for a deviation not indexed yet
+        assertThat(photos.save(new ByteArrayInputStream("photo".getBytes()))).isEqualTo(photo);
+        sweeper.sweep();
+
+        assertThat(photos.ids()).containsExactly(photo);
+    }
+}
@@ -0,0 +1,226 @@
+package com.lk.photopredict.repository;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DataStoreTest {
+
+    private final Storage storage = mock(Storage.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void getAllSeparatesFoundMissingAndFailed() {
+        String root = Bucket.Name.Deviation.root();
+        Blob first = blob("first");
+        Blob third = blob("third");
+        when(storage.get(root, "1")).thenReturn(first);
+        when(storage.get(root, "2")).thenReturn(null);
+        when(storage.get(root, "3")).thenReturn(third);
+        when(storage.get(root, "4")).thenThrow(new StorageException(503, "unavailable"));
+
+        DataStore dataStore = DataStore.builder(storage, Bucket.Name.Deviation)
+                .batchReads(executor, 2)
+                .build();
+        Map<String, String> streamed = new ConcurrentHashMap<>();
+        BatchReadResult<String> result = dataStore.getAll(List.of("3", "1", "2", "4", "1"), streamed::put);
+
+        assertThat(result.found().keySet()).containsExactly("3", "1");
+        assertThat(result.found()).containsEntry("1", "first").containsEntry("3", "third");
+        assertThat(result.missing()).containsExactly("2");
+        assertThat(result.failed()).containsOnlyKeys("4");
+        assertThat(result.isComplete()).isFalse();
+        assertThat(streamed).isEqualTo(result.found());
+    }
+
+    @Test
+    void getBytesIsCachedUntilDeleted() {
+        String root = Bucket.Name.Image.root();
+        Blob photo = blob("photo");
+        when(storage.get(root, "1")).thenReturn(photo);
+
+        DataStore dataStore = DataStore.builder(storage, Bucket.Name.Image)
+                .cache(new MediaCache("media.image", 1024, 1024, true, new SimpleMeterRegistry()))
+                .build();
+        assertThat(dataStore.getBytes("1")).isEqualTo("photo".getBytes());
+        assertThat(dataStore.getBytes("1")).isEqualTo("photo".getBytes());
+        verify(storage, times(1)).get(root, "1");
+
+        dataStore.delete("1");
+        when(storage.get(root, "1")).thenReturn(null);
+        assertThat(dataStore.getBytes("1")).isNull();
+    }
+
+    @Test
+    void resourceSeeksOverSkippedBytes() throws Exception {
+        ReadChannel reader = mock(ReadChannel.class);
+        when(storage.reader(BlobId.of(Bucket.Name.Recording.root(), "1", 5L))).thenReturn(reader);
+
+        DataStore dataStore = new DataStore(storage, Bucket.Name.Recording);
+        Resource resource = dataStore.resource("1", new DataStore.Metadata(5, null, -1, 1000));
+        assertThat(resource.contentLength()).isEqualTo(1000);
+        try (InputStream in = resource.getInputStream()) {
+            assertThat(in.skip(600)).isEqualTo(600);
+            assertThat(in.skip(600)).isEqualTo(400);
+        }
+        verify(reader).seek(600);
+        verify(reader).seek(1000);
+        verify(reader, never()).read(any());
+    }
+
+    @Test
+    void resourceStreamsAMissAndCachesOnlyAWholeRead() throws Exception {
+        InMemoryBackend backend = new InMemoryBackend();
+        MediaCache cache = new MediaCache("media.image", 1024, 1024, false, new SimpleMeterRegistry());
+        DataStore dataStore = DataStore.builder(backend, Bucket.Name.Image).cache(cache).build();
+        dataStore.save(new ByteArrayInputStream("0123456789".getBytes()), "1");
+        DataStore.Metadata metadata = dataStore.metadata("1");
+
+        // A range starts with a skip and is not cached
+        try (InputStream in = dataStore.resource("1", metadata).getInputStream()) {
+            assertThat(in.skip(8)).isEqualTo(8);
+            assertThat(in.readAllBytes()).isEqualTo("89".getBytes());
+        }
+        assertThat(cache.get("1")).isNull();
+
+        try (InputStream in = dataStore.resource("1", metadata).getInputStream()) {
+            assertThat(in.readAllBytes()).isEqualTo("0123456789".getBytes());
+        }
+        assertThat(cache.get("1")).isEqualTo("0123456789".getBytes());
+    }
+
+    @Test
+    void contentAddressedDuplicateReusesExistingId() {
+        String root = Bucket.Name.Image.root();
+        when(storage.create(any(BlobInfo.class), any(byte[].class), any(Storage.BlobTargetOption.class)))
+                .thenReturn(mock(Blob.class))
+                .thenThrow(new StorageException(412, "precondition failed"));
+        Blob existing = mock(Blob.class);
+        when(existing.getBlobId()).thenReturn(BlobId.of(root, "existing", 1L));
+        when(existing.getGeneration()).thenReturn(1L);
+        when(storage.get(eq(root), anyString())).thenReturn(existing);
+        when(storage.copy(any(Storage.CopyRequest.class))).thenReturn(mock(CopyWriter.class));
+
+        DataStore dataStore = DataStore.builder(storage, Bucket.Name.Image)
+                .contentAddressed(true)
+                .build();
+        String data = Base64.getEncoder().encodeToString("photo".getBytes());
+        String first = dataStore.decodeAndSave(data);
+        String second = dataStore.decodeAndSave(data);
+
+        // SHA-256 of "photo"
+        assertThat(first).hasSize(64).isEqualTo(second);
+        // The duplicate got a new generation
+        verify(storage).copy(any(Storage.CopyRequest.class));
+    }
+
+    @Test
+    void concurrentGetsShareOneStorageRead() throws Exception {
+        String root = Bucket.Name.Deviation.root();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Blob analysis = blob("analysis");
+        when(storage.get(root, "1")).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await();
+            return analysis;
+        });
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DataStore dataStore = DataStore.builder(storage, Bucket.Name.Deviation)
+                .meterRegistry(meterRegistry)
+                .build();
+
+        Future<String> first = executor.submit(() -> dataStore.get("1"));
+        reading.await();
+        Future<String> second = executor.submit(() -> dataStore.get("1"));
+        // The second get is waiting for the first one
+        while (meterRegistry.get("datastore.reads.coalesced").tag("operation", "get").counter().count() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertThat(first.get()).isEqualTo("analysis");
+        assertThat(second.get()).isEqualTo("analysis");
+        verify(storage, times(1)).get(root, "1");
+    }
+
+    @Test
+    void saveCompletedAfterItsTimeoutIsDeleted() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        InMemoryBackend backend = new InMemoryBackend() {
+            @Override
+            public void write(String bucket, String id, String contentType, InputStream data) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.write(bucket, id, contentType, data);
+            }
+
+            @Override
+            public boolean delete(String bucket, String id) {
+                boolean existed = super.delete(bucket, id);
+                deleted.countDown();
+                return existed;
+            }
+        };
+        DataStore dataStore = DataStore.builder(backend, Bucket.Name.Image)
+                .async(executor, Duration.ofMillis(10))
+                .build();
+
+        CompletableFuture<String> saved = dataStore.saveAsync(new ByteArrayInputStream("photo".getBytes()));
+        assertThatThrownBy(saved::join).hasCauseInstanceOf(TimeoutException.class);
+        release.countDown();
+
+        assertThat(deleted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(dataStore.ids()).isEmpty();
+    }
+
+    private static Blob blob(String content) {
+        Blob blob = mock(Blob.class);
+        when(blob.getContent()).thenReturn(content.getBytes());
+        return blob;
+    }
+}
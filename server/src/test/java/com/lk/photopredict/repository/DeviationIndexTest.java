@@ -0,0 +1,194 @@
+package com.lk.photopredict.repository;
+
+import com.lk.photopredict.config.ExecutionMode;
+import com.lk.photopredict.payload.Deviation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeviationIndexTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DataStore deviationStorage = mock(DataStore.class);
+    private final List<DeviationIndex.Entry> entries = List.of(
+            new DeviationIndex.Entry(deviation("a", "2025-05-01T10:00:00"), true),
+            new DeviationIndex.Entry(deviation("b", "2025-05-02T10:00:00"), false),
+            new DeviationIndex.Entry(deviation("c", "2025-05-03T10:00:00"), true));
+    private String manifest;
+    private DeviationIndex deviationIndex;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        manifest = line("first", entries.stream().map(entry -> new DeviationIndex.Change(entry, null, null)).toList());
+        when(deviationStorage.getVersioned(DeviationIndex.MANIFEST_ID))
+                .thenReturn(new DataStore.Versioned(manifest, 7));
+        when(deviationStorage.generation(DeviationIndex.MANIFEST_ID)).thenReturn(7L);
+        when(deviationStorage.compareAndSave(anyString(), eq(DeviationIndex.MANIFEST_ID), anyLong()))
+                .thenReturn(OptionalLong.of(8));
+        when(deviationStorage.compareAndAppend(anyString(), eq(DeviationIndex.MANIFEST_ID), anyLong()))
+                .thenReturn(OptionalLong.of(8));
+        deviationIndex = new DeviationIndex(deviationStorage, objectMapper, new ExecutionMode(false), 60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deviationIndex.shutdown();
+    }
+
+    @Test
+    void pagesFollowCursor() {
+        DeviationIndex.Page first = deviationIndex.page(null, 2, DeviationIndex.Filter.NONE);
+        assertThat(first.deviations()).extracting(Deviation::id).containsExactly("a", "b");
+        assertThat(first.nextCursor()).isNotNull();
+
+        DeviationIndex.Page second = deviationIndex.page(first.nextCursor(), 2, DeviationIndex.Filter.NONE);
+        assertThat(second.deviations()).extracting(Deviation::id).containsExactly("c");
+        assertThat(second.nextCursor()).isNull();
+    }
+
+    @Test
+    void pagesAreOrderedByTimestampThenId() {
+        deviationIndex.put(deviation("0", "2025-05-04T10:00:00"));
+        deviationIndex.put(deviation("z", "2025-05-02T10:00:00"));
+
+        DeviationIndex.Page first = deviationIndex.page(null, 3, DeviationIndex.Filter.NONE);
+        assertThat(first.deviations()).extracting(Deviation::id).containsExactly("a", "b", "z");
+
+        DeviationIndex.Page second = deviationIndex.page(first.nextCursor(), 3, DeviationIndex.Filter.NONE);
+        assertThat(second.deviations()).extracting(Deviation::id).containsExactly("c", "0");
+        assertThat(second.nextCursor()).isNull();
+    }
+
+    @Test
+    void cursorContinuesWithinTheTimestampRange() {
+        DeviationIndex.Filter filter = new DeviationIndex.Filter(LocalDateTime.parse("2025-05-01T12:00:00"), null, null);
+        DeviationIndex.Page first = deviationIndex.page(null, 1, filter);
+        assertThat(first.deviations()).extracting(Deviation::id).containsExactly("b");
+
+        assertThat(deviationIndex.page(first.nextCursor(), 1, filter).deviations()).extracting(Deviation::id)
+                .containsExactly("c");
+    }
+
+    @Test
+    void filtersByTimestampAndAnalysis() {
+        DeviationIndex.Filter filter = new DeviationIndex.Filter(LocalDateTime.parse("2025-05-01T12:00:00"), null, true);
+        assertThat(deviationIndex.page(null, 10, filter).deviations()).extracting(Deviation::id).containsExactly("c");
+    }
+
+    @Test
+    void changesAreVisibleBeforeTheyAreWritten() {
+        deviationIndex.put(deviation("d", "2025-05-04T10:00:00"));
+        deviationIndex.remove("a");
+        deviationIndex.markAnalyzed("b");
+
+        DeviationIndex.Filter analyzed = new DeviationIndex.Filter(null, null, true);
+        assertThat(deviationIndex.page(null, 10, analyzed).deviations()).extracting(Deviation::id).containsExactly("b", "c");
+        assertThat(deviationIndex.list()).extracting(Deviation::id).containsExactly("b", "c", "d");
+    }
+
+    @Test
+    void addsChangesMissingInTheManifestOnFirstLoad() throws Exception {
+        // Saved and analyzed, but the process stopped before the manifest was written
+        Deviation lost = deviation("d", "2025-05-04T10:00:00");
+        when(deviationStorage.ids()).thenReturn(List.of(DeviationIndex.MANIFEST_ID, "a", "a-analysis", "b", "b-analysis",
+                "c", "c-analysis", "d", "d-analysis"));
+        when(deviationStorage.getAll(List.of("d"))).thenReturn(new BatchReadResult<>(
+                Map.of("d", objectMapper.writeValueAsString(lost)), Set.of(), Map.of()));
+
+        assertThat(deviationIndex.list()).extracting(Deviation::id).containsExactly("a", "b", "c", "d");
+        DeviationIndex.Filter analyzed = new DeviationIndex.Filter(null, null, true);
+        assertThat(deviationIndex.page(null, 10, analyzed).deviations()).extracting(Deviation::id)
+                .containsExactly("a", "b", "c", "d");
+    }
+
+    @Test
+    void appendsOnlyTheChanges() throws Exception {
+        deviationIndex.list();
+        deviationIndex.put(deviation("d", "2025-05-04T10:00:00"));
+        deviationIndex.remove("a");
+        deviationIndex.shutdown();
+
+        ArgumentCaptor<String> appended = ArgumentCaptor.forClass(String.class);
+        verify(deviationStorage).compareAndAppend(appended.capture(), eq(DeviationIndex.MANIFEST_ID), eq(7L));
+        assertThat(appended.getValue()).endsWith("\n");
+        DeviationIndex.Line line = objectMapper.readValue(appended.getValue(), DeviationIndex.Line.class);
+        assertThat(line.epoch()).isEqualTo("first");
+        assertThat(line.changes()).containsExactly(
+                new DeviationIndex.Change(
+                        new DeviationIndex.Entry(deviation("d", "2025-05-04T10:00:00"), false), null, null),
+                new DeviationIndex.Change(null, null, "a"));
+        verify(deviationStorage, never()).compareAndSave(anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    void readsOnlyTheLinesAppendedByOtherInstances() throws Exception {
+        deviationIndex.list();
+        String appended = line("first", List.of(new DeviationIndex.Change(null, null, "a"),
+                new DeviationIndex.Change(null, "b", null)));
+        long size = manifest.getBytes(StandardCharsets.UTF_8).length;
+        when(deviationStorage.generation(DeviationIndex.MANIFEST_ID)).thenReturn(9L);
+        when(deviationStorage.getTail(DeviationIndex.MANIFEST_ID, size)).thenReturn(new DataStore.Validated(appended,
+                new DataStore.Metadata(9, null, -1, size + appended.getBytes(StandardCharsets.UTF_8).length)));
+
+        DeviationIndex.Filter analyzed = new DeviationIndex.Filter(null, null, true);
+        assertThat(deviationIndex.page(null, 10, analyzed).deviations()).extracting(Deviation::id).containsExactly("b", "c");
+        verify(deviationStorage, times(1)).getVersioned(DeviationIndex.MANIFEST_ID);
+    }
+
+    @Test
+    void readsTheWholeManifestWhenItWasCompacted() throws Exception {
+        deviationIndex.list();
+        String compacted = line("second", List.of(new DeviationIndex.Change(entries.get(2), null, null)));
+        when(deviationStorage.generation(DeviationIndex.MANIFEST_ID)).thenReturn(9L);
+        when(deviationStorage.getTail(eq(DeviationIndex.MANIFEST_ID), anyLong())).thenReturn(new DataStore.Validated(
+                compacted.substring(10), new DataStore.Metadata(9, null, -1, compacted.length())));
+        when(deviationStorage.getVersioned(DeviationIndex.MANIFEST_ID))
+                .thenReturn(new DataStore.Versioned(compacted, 9));
+
+        assertThat(deviationIndex.list()).extracting(Deviation::id).containsExactly("c");
+    }
+
+    @Test
+    void compactsTheManifestOfTheFormerFormat() throws Exception {
+        deviationIndex.shutdown();
+        when(deviationStorage.getVersioned(DeviationIndex.MANIFEST_ID))
+                .thenReturn(new DataStore.Versioned(objectMapper.writeValueAsString(entries), 7));
+        deviationIndex = new DeviationIndex(deviationStorage, objectMapper, new ExecutionMode(false), 60_000);
+
+        assertThat(deviationIndex.list()).extracting(Deviation::id).containsExactly("a", "b", "c");
+        deviationIndex.shutdown();
+
+        ArgumentCaptor<String> written = ArgumentCaptor.forClass(String.class);
+        verify(deviationStorage).compareAndSave(written.capture(), eq(DeviationIndex.MANIFEST_ID), eq(7L));
+        DeviationIndex.Line line = objectMapper.readValue(written.getValue(), DeviationIndex.Line.class);
+        assertThat(line.epoch()).isNotNull();
+        assertThat(line.changes()).extracting(DeviationIndex.Change::put).containsExactlyElementsOf(entries);
+    }
+
+    private String line(String epoch, List<DeviationIndex.Change> changes) throws Exception {
+        return objectMapper.writeValueAsString(new DeviationIndex.Line(epoch, changes)) + "\n";
+    }
+
+    private static Deviation deviation(String id, String timestamp) {
+        return new Deviation(id, timestamp, List.of(), List.of(), "");
+    }
+}
@@ -0,0 +1,99 @@
+package com.lk.photopredict.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalBackendTest {
+
+    private static final String BUCKET = Bucket.Name.Deviation.root();
+
+    @TempDir
+    Path root;
+
+    @Test
+    void compareAndWriteChecksTheGeneration() {
+        LocalBackend backend = new LocalBackend(root);
+
+        long first = backend.compareAndWrite(BUCKET, "1", "application/json", Map.of(), "first".getBytes(), 0);
+        assertThat(first).isPositive();
+        assertThat(backend.compareAndWrite(BUCKET, "1", "application/json", Map.of(), "again".getBytes(), 0)).isEqualTo(-1);
+
+        long second = backend.compareAndWrite(BUCKET, "1", "application/json", Map.of(), "second".getBytes(), first);
+        assertThat(second).isGreaterThan(first);
+        assertThat(backend.compareAndWrite(BUCKET, "1", "application/json", Map.of(), "stale".getBytes(), first)).isEqualTo(-1);
+
+        assertThat(backend.read(BUCKET, "1")).isEqualTo("second".getBytes());
+        assertThat(backend.read(BUCKET, "1", first)).isNull();
+        DataStore.Metadata metadata = backend.metadata(BUCKET, "1");
+        assertThat(metadata.generation()).isEqualTo(second);
+        assertThat(metadata.size()).isEqualTo(6);
+        assertThat(Base64.getDecoder().decode(metadata.md5())).hasSize(16);
+    }
+
+    @Test
+    void compareAndAppendChecksTheGeneration() {
+        LocalBackend backend = new LocalBackend(root);
+        assertThat(backend.compareAndAppend(BUCKET, "1", "application/json", "missing".getBytes(), 1)).isEqualTo(-1);
+
+        long first = backend.compareAndWrite(BUCKET, "1", "application/json", Map.of("kept", "yes"), "first\n".getBytes(), 0);
+        long second = backend.compareAndAppend(BUCKET, "1", "application/json", "second\n".getBytes(), first);
+        assertThat(second).isGreaterThan(first);
+        assertThat(backend.compareAndAppend(BUCKET, "1", "application/json", "stale\n".getBytes(), first)).isEqualTo(-1);
+
+        assertThat(backend.read(BUCKET, "1", second)).isEqualTo("first\nsecond\n".getBytes());
+        assertThat(backend.metadata(BUCKET, "1").size()).isEqualTo(13);
+    }
+
+    @Test
+    void openSkipsAndTransfersTheRest() throws Exception {
+        LocalBackend backend = new LocalBackend(root);
+        backend.write(BUCKET, "media/1", "audio/mpeg", new ByteArrayInputStream("0123456789".getBytes()));
+        DataStore.Metadata metadata = backend.metadata(BUCKET, "media/1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = backend.open(BUCKET, "media/1", metadata.generation(), metadata.size())) {
+            assertThat(in.skip(4)).isEqualTo(4);
+            assertThat(in.transferTo(out)).isEqualTo(6);
+            assertThat(in.skip(1)).isZero();
+        }
+        assertThat(out.toString()).isEqualTo("456789");
+    }
+
+    @Test
+    void listAndDeleteAll() {
+        LocalBackend backend = new LocalBackend(root);
+        backend.compareAndWrite(BUCKET, "_cache/b", "application/json", Map.of(), "b".getBytes(), 0);
+        backend.compareAndWrite(BUCKET, "_cache/a", "application/json", Map.of(), "a".getBytes(), 0);
+        backend.compareAndWrite(BUCKET, "deviation", "application/json", Map.of(), "d".getBytes(), 0);
+
+        assertThat(backend.list(BUCKET, "_cache/").keySet()).containsExactly("_cache/a", "_cache/b");
+        assertThat(backend.list(BUCKET, null)).hasSize(3);
+
+        BatchDeleteResult result = backend.deleteAll(List.of(
+                Map.entry(BUCKET, "_cache/a"), Map.entry(BUCKET, "missing")));
+        assertThat(result.deleted()).containsExactly(Map.entry(BUCKET, "_cache/a"));
+        assertThat(result.missing()).containsExactly(Map.entry(BUCKET, "missing"));
+        assertThat(backend.read(BUCKET, "_cache/a")).isNull();
+    }
+
+    @Test
+    void deleteAllTellsTheSameIdInTwoBucketsApart() {
+        String images = Bucket.Name.Image.root();
+        LocalBackend backend = new LocalBackend(root);
+        backend.compareAndWrite(BUCKET, "1", "application/json", Map.of(), "d".getBytes(), 0);
+
+        BatchDeleteResult result = backend.deleteAll(List.of(Map.entry(BUCKET, "1"), Map.entry(images, "1")));
+        assertThat(result.deleted()).containsExactly(Map.entry(BUCKET, "1"));
+        assertThat(result.missing()).containsExactly(Map.entry(images, "1"));
+    }
+}